@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.FlutterInjector;
+import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.embedding.engine.dart.DartExecutor;
+import io.flutter.embedding.engine.loader.FlutterLoader;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.view.FlutterCallbackInformation;
+
+/**
+ * Headless Flutter engine delivering the push notifications to Dart when no application engine is
+ * attached, for example when the process is started by a push notification. The engine runs the
+ * background entrypoint registered with {@code registerBackgroundMessageHandler}, and is started on
+ * the first notification and then kept, so the following notifications are delivered without
+ * starting it again.
+ * <p>
+ * Notifications received while the engine starts are queued, and delivered once the Dart side
+ * reports that it is ready. At most {@link #MAX_PENDING_NOTIFICATIONS} are queued, the oldest ones
+ * being dropped; they are still stored and listed by the application. If the Dart side is not
+ * ready within {@link #STARTUP_TIMEOUT}, or the engine is destroyed, the engine is torn down and
+ * started again with the next notification. All the state is only accessed from the main thread.
+ */
+class FRABackgroundEngine {
+
+    private static final String TAG = FRABackgroundEngine.class.getSimpleName();
+
+    //Settings to store the background entrypoint
+    private static final String FORGEROCK_SHARED_PREFERENCES_BACKGROUND = "org.forgerock.authenticator.BACKGROUND";
+    private static final String DISPATCHER_HANDLE = "dispatcherHandle";
+    private static final String HANDLER_HANDLE = "handlerHandle";
+
+    private static final String CHANNEL_NAME = "forgerock_authenticator/background";
+
+    static final int MAX_PENDING_NOTIFICATIONS = 20;
+    static final long STARTUP_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private static FRABackgroundEngine INSTANCE = null;
+    //Whether the background engine is being created, its plugins are registered meanwhile
+    private static boolean creatingEngine = false;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Deque<Map<String, Object>> pendingNotifications = new ArrayDeque<>();
+    private FlutterEngine engine;
+    private MethodChannel channel;
+    private boolean starting = false;
+    private boolean ready = false;
+
+    //Tears the engine down if the Dart side does not report that it is ready in time
+    private final Runnable startupTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.e(TAG, "Background Flutter engine not ready after " + STARTUP_TIMEOUT
+                    + "ms, dropping " + pendingNotifications.size() + " pending notifications.");
+            pendingNotifications.clear();
+            destroy();
+        }
+    };
+
+    //Resets the state when the engine restarts or is destroyed by someone else
+    private final FlutterEngine.EngineLifecycleListener lifecycleListener =
+            new FlutterEngine.EngineLifecycleListener() {
+        @Override
+        public void onPreEngineRestart() {
+            // The background entrypoint runs again and reports when it is ready
+            ready = false;
+            mainHandler.removeCallbacks(startupTimeout);
+            mainHandler.postDelayed(startupTimeout, STARTUP_TIMEOUT);
+        }
+
+        @Override
+        public void onEngineWillDestroy() {
+            reset();
+        }
+    };
+
+    private FRABackgroundEngine(Context context) {
+        this.context = context;
+    }
+
+    static synchronized FRABackgroundEngine getInstance(@NonNull Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new FRABackgroundEngine(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Whether the plugin is being attached to the background engine, rather than to an
+     * application engine. Must be called from the main thread.
+     * @return {@code true} while the background engine is created.
+     */
+    static boolean isCreatingEngine() {
+        return creatingEngine;
+    }
+
+    /**
+     * Store the Dart callbacks run by the background engine.
+     * @param context application context.
+     * @param dispatcherHandle the handle of the background entrypoint.
+     * @param handlerHandle the handle of the application handler of the notifications.
+     */
+    static void setCallbacks(@NonNull Context context, long dispatcherHandle, long handlerHandle) {
+        getPreferences(context).edit()
+                .putLong(DISPATCHER_HANDLE, dispatcherHandle)
+                .putLong(HANDLER_HANDLE, handlerHandle)
+                .apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(FORGEROCK_SHARED_PREFERENCES_BACKGROUND, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Deliver a notification to the background handler, starting the engine if needed. Does
+     * nothing if no background handler was registered.
+     * @param notification the notification payload.
+     */
+    void deliver(@NonNull final Map<String, Object> notification) {
+        if (!getPreferences(context).contains(HANDLER_HANDLE)) {
+            return;
+        }
+        FRAClientWrapper.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                pendingNotifications.add(notification);
+                if (pendingNotifications.size() > MAX_PENDING_NOTIFICATIONS) {
+                    Log.w(TAG, "Too many notifications waiting for the background Flutter engine, "
+                            + "dropping the oldest one.");
+                    pendingNotifications.removeFirst();
+                }
+                if (ready) {
+                    flush();
+                } else {
+                    start();
+                }
+            }
+        });
+    }
+
+    private void start() {
+        if (engine != null || starting) {
+            return;
+        }
+        starting = true;
+        mainHandler.postDelayed(startupTimeout, STARTUP_TIMEOUT);
+
+        final FlutterLoader loader = FlutterInjector.instance().flutterLoader();
+        loader.startInitialization(context);
+        loader.ensureInitializationCompleteAsync(context, null, mainHandler, new Runnable() {
+            @Override
+            public void run() {
+                createEngine(loader);
+            }
+        });
+    }
+
+    private void createEngine(FlutterLoader loader) {
+        if (engine != null || !starting) {
+            // Timed out meanwhile
+            return;
+        }
+
+        long dispatcherHandle = getPreferences(context).getLong(DISPATCHER_HANDLE, 0);
+        FlutterCallbackInformation callbackInformation =
+                FlutterCallbackInformation.lookupCallbackInformation(dispatcherHandle);
+        if (callbackInformation == null) {
+            Log.e(TAG, "Background entrypoint not found, dropping the pending notifications.");
+            pendingNotifications.clear();
+            reset();
+            return;
+        }
+
+        Logger.debug(TAG, "Starting the background Flutter engine.");
+        creatingEngine = true;
+        try {
+            engine = new FlutterEngine(context);
+        } finally {
+            creatingEngine = false;
+        }
+        engine.addEngineLifecycleListener(lifecycleListener);
+
+        channel = new MethodChannel(engine.getDartExecutor(), CHANNEL_NAME);
+        channel.setMethodCallHandler(new MethodChannel.MethodCallHandler() {
+            @Override
+            public void onMethodCall(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+                if ("initialized".equals(call.method)) {
+                    mainHandler.removeCallbacks(startupTimeout);
+                    ready = true;
+                    flush();
+                    result.success(true);
+                } else {
+                    result.notImplemented();
+                }
+            }
+        });
+        engine.getDartExecutor().executeDartCallback(new DartExecutor.DartCallback(
+                context.getAssets(), loader.findAppBundlePath(), callbackInformation));
+    }
+
+    private void flush() {
+        long handlerHandle = getPreferences(context).getLong(HANDLER_HANDLE, 0);
+        for (Map<String, Object> notification : pendingNotifications) {
+            Map<String, Object> arguments = new HashMap<>();
+            arguments.put("handle", handlerHandle);
+            arguments.put("notification", notification);
+            channel.invokeMethod("onBackgroundMessage", arguments);
+        }
+        pendingNotifications.clear();
+    }
+
+    /**
+     * Destroy the engine, so it is started again with the next notification.
+     */
+    private void destroy() {
+        FlutterEngine destroyed = engine;
+        reset();
+        if (destroyed != null) {
+            destroyed.removeEngineLifecycleListener(lifecycleListener);
+            destroyed.destroy();
+        }
+    }
+
+    private void reset() {
+        mainHandler.removeCallbacks(startupTimeout);
+        engine = null;
+        channel = null;
+        starting = false;
+        ready = false;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.util.Log;
+
+/**
+ * Sequence of the changes applied to the {@link FRAStorageClient}. Each change gets a sequence
+ * number which increases monotonically, and listeners are called in the sequence order.
+ * <p>
+ * Changes are only published once they are committed or staged successfully, and never while the
+ * caches are loaded from the backing storage. A {@link Change#RESET} tells the listener that its
+ * copy of the data must be loaded again, for example when all the notifications are removed.
+ */
+class FRAChangeFeed {
+
+    private static final String TAG = FRAChangeFeed.class.getSimpleName();
+
+    /**
+     * The entity types which are published.
+     */
+    enum Entity {
+        ACCOUNT,
+        MECHANISM,
+        NOTIFICATION
+    }
+
+    /**
+     * The kinds of changes.
+     */
+    enum Change {
+        ADDED,
+        UPDATED,
+        REMOVED,
+        RESET
+    }
+
+    /**
+     * Receives the changes, on the thread which applied them and while holding the storage locks.
+     * Implementations must not block or call back into the storage client.
+     */
+    interface Listener {
+        /**
+         * Called for every change.
+         * @param sequence the sequence number of the change.
+         * @param entity the changed entity type, or {@code null} for a reset of all the entities.
+         * @param change the kind of change.
+         * @param id the entity id, or {@code null} for a reset.
+         * @param value the entity, or {@code null} if it was removed or for a reset.
+         */
+        void onChange(long sequence, Entity entity, Change change, String id, Object value);
+    }
+
+    private long sequence = 0;
+    private Listener listener;
+
+    /**
+     * Set the listener of the changes, replacing the previous one. The new listener receives a
+     * {@link Change#RESET} first.
+     * @param listener the listener, or {@code null} to stop publishing the changes.
+     */
+    synchronized void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener != null) {
+            listener.onChange(++sequence, null, Change.RESET, null, null);
+        }
+    }
+
+    /**
+     * Publish an added or updated entity.
+     * @param entity the entity type.
+     * @param id the entity id.
+     * @param value the new entity.
+     * @param added {@code true} if the entity did not exist before.
+     */
+    void put(Entity entity, String id, Object value, boolean added) {
+        publish(entity, added ? Change.ADDED : Change.UPDATED, id, value);
+    }
+
+    /**
+     * Publish a removed entity.
+     * @param entity the entity type.
+     * @param id the entity id.
+     */
+    void remove(Entity entity, String id) {
+        publish(entity, Change.REMOVED, id, null);
+    }
+
+    /**
+     * Publish that the entities must be loaded again.
+     * @param entity the entity type, or {@code null} for all the entities.
+     */
+    void reset(Entity entity) {
+        publish(entity, Change.RESET, null, null);
+    }
+
+    private synchronized void publish(Entity entity, Change change, String id, Object value) {
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onChange(++sequence, entity, change, id, value);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error publishing a storage change.", e);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the entities returned to the Flutter application into the maps and lists supported by
+ * the {@code StandardMessageCodec}, so they are sent as typed values instead of JSON strings which
+ * the Dart side would have to decode again.
+ * <p>
+ * The fields of each entity are still the ones of its {@code toJson()} representation, which is
+ * parsed once and memoized by the {@link FRAStorageClient} until the entity is written again.
+ * Nested entities, like the mechanisms of an account, are added as maps directly.
+ */
+final class FRAChannelCodec {
+
+    private final FRAStorageClient storageClient;
+    private final FRAMetrics metrics = FRAMetrics.getInstance();
+
+    FRAChannelCodec(@NonNull FRAStorageClient storageClient) {
+        this.storageClient = storageClient;
+    }
+
+    /**
+     * Convert an account and its mechanisms.
+     * @param account the account.
+     * @return the account map, with its mechanisms under {@code mechanismList}.
+     */
+    Map<String, Object> toMap(@NonNull Account account) {
+        long start = metrics.start();
+        Map<String, Object> accountMap = new HashMap<>(storageClient.getPayload(account));
+        List<Map<String, Object>> mechanismList = new ArrayList<>();
+        for (Mechanism mechanism : account.getMechanisms()) {
+            mechanismList.add(storageClient.getPayload(mechanism));
+        }
+        accountMap.put("mechanismList", mechanismList);
+        metrics.record(FRAMetrics.Phase.SERIALIZATION, start);
+        return accountMap;
+    }
+
+    /**
+     * Convert an account, with or without its mechanisms.
+     * @param account the account.
+     * @param withMechanisms whether to add the mechanisms under {@code mechanismList}.
+     * @return the account map.
+     */
+    Map<String, Object> toMap(@NonNull Account account, boolean withMechanisms) {
+        if (withMechanisms) {
+            return toMap(account);
+        }
+        long start = metrics.start();
+        Map<String, Object> accountMap = storageClient.getPayload(account);
+        metrics.record(FRAMetrics.Phase.SERIALIZATION, start);
+        return accountMap;
+    }
+
+    /**
+     * Convert a mechanism.
+     * @param mechanism the mechanism.
+     * @return the mechanism map.
+     */
+    Map<String, Object> toMap(@NonNull Mechanism mechanism) {
+        long start = metrics.start();
+        Map<String, Object> mechanismMap = storageClient.getPayload(mechanism);
+        metrics.record(FRAMetrics.Phase.SERIALIZATION, start);
+        return mechanismMap;
+    }
+
+    /**
+     * Convert a notification.
+     * @param pushNotification the notification.
+     * @return the notification map.
+     */
+    Map<String, Object> toMap(@NonNull PushNotification pushNotification) {
+        long start = metrics.start();
+        Map<String, Object> notificationMap = storageClient.getPayload(pushNotification);
+        metrics.record(FRAMetrics.Phase.SERIALIZATION, start);
+        return notificationMap;
+    }
+
+    /**
+     * Convert an OATH token code.
+     * @param oathTokenCode the token code.
+     * @return the token code map.
+     */
+    Map<String, Object> toMap(@NonNull OathTokenCode oathTokenCode) {
+        long start = metrics.start();
+        Map<String, Object> oathTokenCodeMap = parse(oathTokenCode.toJson());
+        metrics.record(FRAMetrics.Phase.SERIALIZATION, start);
+        return oathTokenCodeMap;
+    }
+
+    /**
+     * Convert a list of notifications, keeping their order.
+     * @param notifications the notifications.
+     * @return the list of notification maps.
+     */
+    List<Map<String, Object>> toList(@NonNull List<PushNotification> notifications) {
+        long start = metrics.start();
+        List<Map<String, Object>> list = new ArrayList<>(notifications.size());
+        for (PushNotification pushNotification : notifications) {
+            list.add(storageClient.getPayload(pushNotification));
+        }
+        metrics.record(FRAMetrics.Phase.SERIALIZATION, start);
+        return list;
+    }
+
+    /**
+     * Parse the JSON representation of an entity.
+     * @param json the JSON representation.
+     * @return the entity map.
+     */
+    static Map<String, Object> parse(String json) {
+        try {
+            return toMap(new JSONObject(json));
+        } catch (JSONException e) {
+            throw new IllegalStateException("Invalid entity representation.", e);
+        }
+    }
+
+    private static Map<String, Object> toMap(JSONObject jsonObject) throws JSONException {
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, toValue(jsonObject.get(key)));
+        }
+        return map;
+    }
+
+    private static Object toValue(Object value) throws JSONException {
+        if (value == JSONObject.NULL) {
+            return null;
+        } else if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) value;
+            List<Object> list = new ArrayList<>(jsonArray.length());
+            for (int i = 0; i < jsonArray.length(); i++) {
+                list.add(toValue(jsonArray.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the channel operations on a pool of worker threads, so the Flutter platform thread never
+ * does storage or crypto work. Operations on the same resource run one at a time, in the order
+ * they were submitted; operations on different resources run in parallel.
+ */
+class FRAChannelExecutor {
+
+    private static final String TAG = FRAChannelExecutor.class.getSimpleName();
+
+    private final ExecutorService workers;
+
+    //Operations waiting for the one running on the same resource, guarded by itself
+    private final Map<String, ArrayDeque<Runnable>> queues = new HashMap<>();
+
+    FRAChannelExecutor(int threads) {
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FRAWorker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Run an operation after all the operations previously submitted for the same resource.
+     * @param resource the resource the operation must be serialized with.
+     * @param task the operation.
+     */
+    void execute(final String resource, final Runnable task) {
+        synchronized (queues) {
+            ArrayDeque<Runnable> queue = queues.get(resource);
+            if (queue != null) {
+                // An operation is running on this resource, it runs this one next
+                queue.add(task);
+                return;
+            }
+            queues.put(resource, new ArrayDeque<Runnable>());
+        }
+
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                runSerially(resource, task);
+            }
+        });
+    }
+
+    private void runSerially(String resource, Runnable task) {
+        while (task != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error running operation on " + resource + ".", e);
+            }
+
+            synchronized (queues) {
+                ArrayDeque<Runnable> queue = queues.get(resource);
+                task = queue.poll();
+                if (task == null) {
+                    queues.remove(resource);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * Optional settings of the plugin, read from the {@code <meta-data>} entries of the host
+ * application manifest. The values are read once, so they apply both when the plugin is attached
+ * to a Flutter engine and when the process is started by a push notification.
+ * <pre>{@code
+ * <meta-data
+ *     android:name="org.forgerock.authenticator.WRITE_BEHIND_WINDOW_MS"
+ *     android:value="100" />
+ * }</pre>
+ */
+class FRAClientConfig {
+
+    private static final String TAG = FRAClientConfig.class.getSimpleName();
+
+    static final String WRITE_BEHIND_WINDOW_MS = "org.forgerock.authenticator.WRITE_BEHIND_WINDOW_MS";
+    static final String STORAGE = "org.forgerock.authenticator.STORAGE";
+    static final String LAZY_DESERIALIZATION = "org.forgerock.authenticator.LAZY_DESERIALIZATION";
+    static final String WARM_UP = "org.forgerock.authenticator.WARM_UP";
+    static final String NOTIFICATION_MAX_COUNT = "org.forgerock.authenticator.NOTIFICATION_MAX_COUNT";
+    static final String NOTIFICATION_TTL_SECONDS = "org.forgerock.authenticator.NOTIFICATION_TTL_SECONDS";
+
+    static final String WORKER_THREADS = "org.forgerock.authenticator.WORKER_THREADS";
+    static final String METRICS = "org.forgerock.authenticator.METRICS";
+
+    private static final int DEFAULT_NOTIFICATION_MAX_COUNT = 20;
+    private static final int DEFAULT_WORKER_THREADS = 2;
+
+    /**
+     * The persistent stores available for the {@link FRAStorageClient}.
+     */
+    enum StorageType {
+        SHARED_PREFERENCES,
+        SQLITE
+    }
+
+    private final long writeBehindWindowMillis;
+    private final StorageType storageType;
+    private final boolean lazyDeserialization;
+    private final boolean warmUp;
+    private final int notificationMaxCount;
+    private final long notificationTtlSeconds;
+    private final int workerThreads;
+    private final boolean metrics;
+
+    private FRAClientConfig(Bundle metaData) {
+        this.writeBehindWindowMillis = Math.max(0, metaData.getInt(WRITE_BEHIND_WINDOW_MS, 0));
+        this.storageType = "sqlite".equalsIgnoreCase(metaData.getString(STORAGE))
+                ? StorageType.SQLITE : StorageType.SHARED_PREFERENCES;
+        this.lazyDeserialization = metaData.getBoolean(LAZY_DESERIALIZATION, false);
+        this.warmUp = metaData.getBoolean(WARM_UP, false);
+        this.notificationMaxCount = Math.max(0,
+                metaData.getInt(NOTIFICATION_MAX_COUNT, DEFAULT_NOTIFICATION_MAX_COUNT));
+        this.notificationTtlSeconds = Math.max(0, metaData.getInt(NOTIFICATION_TTL_SECONDS, 0));
+        this.workerThreads = Math.max(1, metaData.getInt(WORKER_THREADS, DEFAULT_WORKER_THREADS));
+        this.metrics = metaData.getBoolean(METRICS, false);
+    }
+
+    /**
+     * Read the configuration from the application manifest.
+     * @param context application context.
+     * @return the configuration, with default values for the missing entries.
+     */
+    static FRAClientConfig from(Context context) {
+        Bundle metaData = null;
+        try {
+            ApplicationInfo applicationInfo = context.getPackageManager()
+                    .getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+            metaData = applicationInfo.metaData;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Error reading the application meta-data.", e);
+        }
+        return new FRAClientConfig(metaData != null ? metaData : Bundle.EMPTY);
+    }
+
+    /**
+     * Create a configuration with the default values.
+     * @return the default configuration.
+     */
+    static FRAClientConfig defaults() {
+        return new FRAClientConfig(Bundle.EMPTY);
+    }
+
+    /**
+     * The time window in milliseconds during which storage writes are coalesced before being
+     * committed. {@code 0} means that every write is committed synchronously.
+     * @return the write-behind window.
+     */
+    long getWriteBehindWindowMillis() {
+        return writeBehindWindowMillis;
+    }
+
+    /**
+     * The persistent store of the {@link FRAStorageClient}. Set the meta-data value to
+     * {@code sqlite} to use the encrypted SQLite database, the SharedPreferences files are used
+     * otherwise.
+     * @return the storage type.
+     */
+    StorageType getStorageType() {
+        return storageType;
+    }
+
+    /**
+     * Whether the {@link FRAStorageClient} keeps the loaded entities as JSON and deserializes each
+     * of them on first access, instead of deserializing all of them when loaded.
+     * @return {@code true} if lazy deserialization is enabled.
+     */
+    boolean isLazyDeserialization() {
+        return lazyDeserialization;
+    }
+
+    /**
+     * Whether the storage caches are preloaded on a background thread when the plugin is attached
+     * to a Flutter engine.
+     * @return {@code true} if the warm-up is enabled.
+     */
+    boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * The maximum number of stored notifications. The oldest ones are removed when a new
+     * notification is stored. {@code 0} means no limit.
+     * @return the maximum number of notifications.
+     */
+    int getNotificationMaxCount() {
+        return notificationMaxCount;
+    }
+
+    /**
+     * The time in seconds after which a stored notification is removed, counted from the time it
+     * was added. {@code 0} means that notifications never expire from the storage.
+     * @return the notification retention time.
+     */
+    long getNotificationTtlSeconds() {
+        return notificationTtlSeconds;
+    }
+
+    /**
+     * The number of worker threads running the channel operations.
+     * @return the size of the worker pool.
+     */
+    int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Whether the latency and error metrics of the channel methods are recorded.
+     * @return {@code true} if the metrics are enabled.
+     */
+    boolean isMetrics() {
+        return metrics;
+    }
+
+}
@@ -34,8 +34,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.Result;
 
@@ -45,16 +52,31 @@ public class FRAClientWrapper {
 
     private static final String TAG = FRAClientWrapper.class.getSimpleName();
 
+    //Shared handler posting the channel results and calls to the platform thread
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     private final Context context;
+    private final FRAClientConfig config;
     private final FRAStorageClient storageClient;
-    private FRAClient fraClient;
+    private final FRAChannelExecutor channelExecutor;
+    private final FRAChannelCodec channelCodec;
+    private final FRAMetrics metrics = FRAMetrics.getInstance();
+    private ScheduledExecutorService metricsScheduler;
+    private ScheduledFuture<?> metricsTask;
+    //Started once, by the first operation or broadcast receiver which needs it
+    private final Object clientLock = new Object();
+    private volatile FRAClient fraClient;
     private FRAPolicyEvaluator policyEvaluator;
     private String fcmToken;
-    private MethodChannel channel;
+    private volatile MethodChannel channel;
 
     private FRAClientWrapper(Context context) {
         this.context = context;
-        this.storageClient = new FRAStorageClient(context);
+        this.config = FRAClientConfig.from(context);
+        this.metrics.setEnabled(config.isMetrics());
+        this.storageClient = new FRAStorageClient(context, config);
+        this.channelExecutor = new FRAChannelExecutor(config.getWorkerThreads());
+        this.channelCodec = new FRAChannelCodec(storageClient);
         try {
             this.policyEvaluator = FRAPolicyEvaluator.builder().build();
         } catch (InvalidPolicyException e) {
@@ -89,29 +111,230 @@ public class FRAClientWrapper {
         this.channel = channel;
     }
 
+    /**
+     * Whether the plugin is being attached to the headless engine delivering the push
+     * notifications in the background, rather than to an application engine.
+     * @return {@code true} while the background engine is created.
+     */
+    public static boolean isAttachingBackgroundEngine() {
+        return FRABackgroundEngine.isCreatingEngine();
+    }
+
+    /**
+     * Register the Dart callbacks receiving the push notifications when no application engine is
+     * attached.
+     * @param dispatcherHandle the handle of the background entrypoint.
+     * @param handlerHandle the handle of the application handler of the notifications.
+     * @param flutterResult the result of the channel call.
+     */
+    public void setBackgroundMessageHandler(long dispatcherHandle, long handlerHandle,
+                                            Result flutterResult) {
+        FRABackgroundEngine.setCallbacks(context, dispatcherHandle, handlerHandle);
+        flutterResult.success(true);
+    }
+
+    /**
+     * Start or stop sending the storage changes to the Flutter application. The sink first
+     * receives a {@code reset} event, then one event per added, updated or removed entity, with a
+     * sequence number which increases monotonically.
+     * @param eventSink the sink of the change events, or {@code null} to stop sending them.
+     */
+    public void setChangeSink(final EventChannel.EventSink eventSink) {
+        if (eventSink == null) {
+            storageClient.getChangeFeed().setListener(null);
+            return;
+        }
+        storageClient.getChangeFeed().setListener(new FRAChangeFeed.Listener() {
+            @Override
+            public void onChange(long sequence, FRAChangeFeed.Entity entity,
+                                 FRAChangeFeed.Change change, String id, Object value) {
+                final Map<String, Object> event = new HashMap<>();
+                event.put("sequence", sequence);
+                event.put("entity", entity != null ? entity.name().toLowerCase(Locale.ROOT) : null);
+                event.put("change", change.name().toLowerCase(Locale.ROOT));
+                event.put("id", id);
+                event.put("data", getChangeData(value));
+                // Always queued, so the events are delivered in the sequence order
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        eventSink.success(event);
+                    }
+                });
+            }
+        });
+    }
+
+    private Map<String, Object> getChangeData(Object value) {
+        if (value instanceof Account) {
+            return channelCodec.toMap((Account) value, false);
+        } else if (value instanceof Mechanism) {
+            return channelCodec.toMap((Mechanism) value);
+        } else if (value instanceof PushNotification) {
+            return channelCodec.toMap((PushNotification) value);
+        }
+        return null;
+    }
+
+    /**
+     * A channel operation run on the worker threads.
+     */
+    public interface ChannelOperation {
+        /**
+         * Run the operation.
+         * @param result the result of the channel call, which can be completed from any thread.
+         */
+        void run(Result result);
+    }
+
+    /**
+     * Run a channel operation on the worker threads, after the operations previously submitted
+     * for the same resource. The result is posted back to the platform thread.
+     * @param resource the resource the operation must be serialized with.
+     * @param flutterResult the result of the channel call.
+     * @param operation the operation.
+     */
+    public void execute(final String method, String resource, Result flutterResult,
+                        final ChannelOperation operation) {
+        final Result result = new FRAMainThreadResult(flutterResult);
+        final long submitted = metrics.start();
+        channelExecutor.execute(resource, new Runnable() {
+            @Override
+            public void run() {
+                metrics.record(method, FRAMetrics.Phase.QUEUE, submitted);
+                String previousMethod = metrics.enter(method);
+                try {
+                    operation.run(result);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Error running channel operation.", e);
+                    result.error("AUTHENTICATOR_EXCEPTION", e.getLocalizedMessage(), null);
+                } finally {
+                    metrics.exit(previousMethod);
+                }
+            }
+        });
+    }
+
+    /**
+     * Count the call of a channel method and record its latency when it is replied to.
+     * @param method the channel method name.
+     * @param flutterResult the result of the channel call.
+     * @return the result to reply to.
+     */
+    public Result meter(String method, Result flutterResult) {
+        return metrics.isEnabled() ? new FRAMeteredResult(method, flutterResult) : flutterResult;
+    }
+
+    /**
+     * Get the latency and error metrics of the channel methods.
+     * @param reset {@code true} to start counting again from zero.
+     * @return the metrics snapshot.
+     */
+    public Map<String, Object> getMetrics(boolean reset) {
+        return metrics.snapshot(reset);
+    }
+
+    /**
+     * Start or stop sending a snapshot of the metrics to the Flutter application periodically.
+     * Each snapshot only covers the period since the previous one.
+     * @param eventSink the sink of the snapshots, or {@code null} to stop sending them.
+     * @param intervalSeconds the time between two snapshots.
+     */
+    public synchronized void setMetricsSink(final EventChannel.EventSink eventSink, long intervalSeconds) {
+        if (metricsTask != null) {
+            metricsTask.cancel(false);
+            metricsTask = null;
+        }
+        if (eventSink == null) {
+            return;
+        }
+        if (metricsScheduler == null) {
+            metricsScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "FRAMetrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        long interval = Math.max(1, intervalSeconds);
+        metricsTask = metricsScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, Object> snapshot = metrics.snapshot(true);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        eventSink.success(snapshot);
+                    }
+                });
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Run on the platform thread, immediately if called from it.
+     * @param runnable the code to run.
+     */
+    static void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mainHandler.post(runnable);
+        }
+    }
+
     private void startInBackground() {
         try {
+            startClient();
+        } catch (AuthenticatorException e) {
+            Log.e(TAG, "Error initializing SDK in background.", e);
+        }
+    }
+
+    /**
+     * Start the SDK, once. Threads calling this method while another one starts the SDK wait for
+     * it to complete.
+     * @return the started SDK client.
+     * @throws AuthenticatorException if the SDK cannot be started.
+     */
+    private FRAClient startClient() throws AuthenticatorException {
+        FRAClient client = fraClient;
+        if (client != null) {
+            return client;
+        }
+
+        synchronized (clientLock) {
             if (fraClient == null) {
-                Log.d(TAG, "Starting SDK in background.");
+                Log.d(TAG, "Starting SDK.");
+                // Initialise SDK passing application Context and custom StorageClient
                 fraClient = FRAClient.builder()
                         .withContext(context)
                         .withStorage(storageClient)
                         .withPolicyEvaluator(policyEvaluator)
                         .start();
             }
+            return fraClient;
+        }
+    }
+
+    /**
+     * Get the SDK client, starting it first if needed.
+     * @return the started SDK client.
+     * @throws IllegalStateException if the SDK cannot be started.
+     */
+    private FRAClient getClient() {
+        try {
+            return startClient();
         } catch (AuthenticatorException e) {
-            Log.e(TAG, "Error initializing SDK in background.", e);
+            throw new IllegalStateException("Error initializing SDK.", e);
         }
     }
 
     public void start(final Result flutterResult, final FRRequestPermissionListener permissionListener) {
         try {
-            // Initialise SDK passing application Context and custom StorageClient
-            fraClient = FRAClient.builder()
-                    .withContext(context)
-                    .withStorage(storageClient)
-                    .withPolicyEvaluator(policyEvaluator)
-                    .start();
+            final FRAClient client = startClient();
 
             // Retrieve the FCM token
             FirebaseMessaging.getInstance().getToken()
@@ -137,7 +360,7 @@ public class FRAClientWrapper {
 
                             // Register the token with the SDK to enable Push mechanisms
                             try {
-                                fraClient.registerForRemoteNotifications(fcmToken);
+                                client.registerForRemoteNotifications(fcmToken);
 
                                 // Request notification permission for Android 13 and above
                                 if (Build.VERSION.SDK_INT >= 33) {
@@ -169,20 +392,20 @@ public class FRAClientWrapper {
     }
 
     public void createMechanismFromUri(String uri, final Result flutterResult) {
-        fraClient.createMechanismFromUri(uri, new FRAListener<Mechanism>() {
+        getClient().createMechanismFromUri(uri, new FRAListener<Mechanism>() {
             @Override
             public void onSuccess(Mechanism result) {
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                runOnMainThread(new Runnable() {
                     @Override
                     public void run() {
-                        flutterResult.success(result.toJson());
+                        flutterResult.success(channelCodec.toMap(result));
                     }
                 });
             }
 
             @Override
             public void onException(Exception e) {
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                runOnMainThread(new Runnable() {
                     @Override
                     public void run() {
                         if (e instanceof DuplicateMechanismException)  {
@@ -202,14 +425,14 @@ public class FRAClientWrapper {
     }
 
     public void getAllAccounts(final Result flutterResult) {
-        new FRARetrieveAccountsTask(fraClient, flutterResult).run();
+        new FRARetrieveAccountsTask(getClient(), channelCodec, flutterResult).run();
     }
 
     public void updateAccount(String accountJson, Result flutterResult) {
         Account account = Account.deserialize(accountJson);
         try {
             if (account != null) {
-                flutterResult.success(fraClient.updateAccount(account));
+                flutterResult.success(getClient().updateAccount(account));
             } else {
                 flutterResult.success(false);
             }
@@ -221,7 +444,7 @@ public class FRAClientWrapper {
     public void removeAccount(String accountId, Result flutterResult) {
         Account account = storageClient.getAccount(accountId);
         if (account != null) {
-            flutterResult.success(fraClient.removeAccount(account));
+            flutterResult.success(getClient().removeAccount(account));
         } else {
             flutterResult.success(false);
         }
@@ -232,7 +455,7 @@ public class FRAClientWrapper {
         FRAPolicy fraPolicy = getPolicyByName(policyName);
         try {
             if (account != null && fraPolicy != null) {
-                flutterResult.success(fraClient.lockAccount(account, fraPolicy));
+                flutterResult.success(getClient().lockAccount(account, fraPolicy));
             } else {
                 flutterResult.error("ACCOUNT_LOCK_EXCEPTION", "Error locking the account: Invalid parameters.", null);
             }
@@ -245,7 +468,7 @@ public class FRAClientWrapper {
         Account account = storageClient.getAccount(accountId);
         try {
             if (account != null) {
-                flutterResult.success(fraClient.unlockAccount(account));
+                flutterResult.success(getClient().unlockAccount(account));
             } else {
                 flutterResult.error("ACCOUNT_LOCK_EXCEPTION", "Error unlocking the account: Invalid parameters.", null);
             }
@@ -257,7 +480,7 @@ public class FRAClientWrapper {
     public void removeMechanism(String mechanismUID, Result flutterResult) {
         Mechanism mechanism = storageClient.getMechanismByUUID(mechanismUID);
         if (mechanism != null) {
-            flutterResult.success(fraClient.removeMechanism(mechanism));
+            flutterResult.success(getClient().removeMechanism(mechanism));
         } else {
             flutterResult.success(false);
         }
@@ -272,18 +495,29 @@ public class FRAClientWrapper {
         OathMechanism oathMechanism = (OathMechanism)storageClient.getMechanism(mechanismId);
 
         if(oathMechanism != null) {
+            long start = metrics.start();
             try {
-                flutterResult.success(oathMechanism.getOathTokenCode().toJson());
+                OathTokenCode oathTokenCode = oathMechanism.getOathTokenCode();
+                // The HOTP counter must be durable before the code is used, a staged write could
+                // be lost and the counter reused
+                if(!storageClient.flush()) {
+                    flutterResult.error("OATH_MECHANISM_EXCEPTION", "Error storing the mechanism counter.", null);
+                    return;
+                }
+                metrics.record(FRAMetrics.Phase.CRYPTO, start);
+                flutterResult.success(channelCodec.toMap(oathTokenCode));
             } catch (OathMechanismException e) {
                 flutterResult.error("OATH_MECHANISM_EXCEPTION", e.getLocalizedMessage(), oathMechanism.toJson());
             } catch (AccountLockException e) {
                 flutterResult.error("ACCOUNT_LOCK_EXCEPTION", e.getLocalizedMessage(), null);
             }
+        } else {
+            flutterResult.error("OATH_MECHANISM_EXCEPTION", "Mechanism not found.", null);
         }
     }
 
     public void getAllNotificationsByAccountId(String accountId, Result flutterResult) {
-        Account account = fraClient.getAccount(accountId);
+        Account account = getClient().getAccount(accountId);
         if (account != null) {
             List<Mechanism> mechanismList = account.getMechanisms();
             Mechanism mechanism = null;
@@ -294,29 +528,55 @@ public class FRAClientWrapper {
             }
 
             if (mechanism != null) {
-                List<PushNotification> notificationList = fraClient.getAllNotifications(mechanism);
-                List<String> jsonList  = new ArrayList<>();
-                for(PushNotification p : notificationList) {
-                    jsonList.add(p.toJson());
-                }
-                flutterResult.success(jsonList);
+                List<PushNotification> notificationList = getClient().getAllNotifications(mechanism);
+                flutterResult.success(channelCodec.toList(notificationList));
             } else {
                 flutterResult.success(Collections.EMPTY_LIST);
             }
+        } else {
+            flutterResult.success(Collections.EMPTY_LIST);
         }
     }
 
     public void getAllNotifications(Result flutterResult) {
-        List<PushNotification> notificationList = fraClient.getAllNotifications();
-        List<String> jsonList  = new ArrayList<>();
-        for(PushNotification p : notificationList) {
-            jsonList.add(p.toJson());
+        List<PushNotification> notificationList = getClient().getAllNotifications();
+        flutterResult.success(channelCodec.toList(notificationList));
+    }
+
+    public void getPendingNotificationsCount(Result flutterResult) {
+        flutterResult.success(storageClient.getPendingNotificationsCount());
+    }
+
+    public void getNotificationsPage(Map<String, Object> olderThan,
+                                     Map<String, Object> newerThan,
+                                     int limit,
+                                     String mechanismUID,
+                                     boolean pendingOnly,
+                                     String pushType,
+                                     Result flutterResult) {
+        FRANotificationQuery query = new FRANotificationQuery()
+                .setOlderThan(getNotificationCursor(olderThan))
+                .setNewerThan(getNotificationCursor(newerThan))
+                .setLimit(limit)
+                .setMechanismUID(mechanismUID)
+                .setPendingOnly(pendingOnly)
+                .setPushType(pushType);
+
+        List<PushNotification> notificationList = storageClient.getNotifications(query);
+        flutterResult.success(channelCodec.toList(notificationList));
+    }
+
+    private FRANotificationCursor getNotificationCursor(Map<String, Object> cursor) {
+        if (cursor == null || !(cursor.get("id") instanceof String)
+                || !(cursor.get("timeAdded") instanceof Number)) {
+            return null;
         }
-        flutterResult.success(jsonList);
+        return new FRANotificationCursor(((Number) cursor.get("timeAdded")).longValue(),
+                (String) cursor.get("id"));
     }
 
     public void getNotification(String notificationId, Result flutterResult) {
-        PushNotification notification = fraClient.getNotification(notificationId);
+        PushNotification notification = getClient().getNotification(notificationId);
         if (notification != null) {
             flutterResult.success(notification.serialize());
         } else {
@@ -325,30 +585,23 @@ public class FRAClientWrapper {
     }
 
     public PushNotification getNotification(String notificationId) {
-        return fraClient.getNotification(notificationId);
+        return getClient().getNotification(notificationId);
     }
 
     private PushNotification getNotificationByMessageId(String messageId) {
-        List<PushNotification> allPushNotifications = fraClient.getAllNotifications();
-        for(PushNotification pushNotification : allPushNotifications){
-            if(pushNotification.getMessageId().equals(messageId)){
-                return pushNotification;
-            }
-        }
-        return null;
+        return storageClient.getNotificationByMessageId(messageId);
     }
 
     public Mechanism getMechanism(@NonNull PushNotification notification) {
-        return fraClient.getMechanism(notification);
+        return getClient().getMechanism(notification);
     }
 
     public void getAllMechanismsGroupByUID(Result flutterResult) {
-        Map<String,String> mechanismList = new HashMap<>();
+        Map<String, Map<String, Object>> mechanismList = new HashMap<>();
 
         List<Mechanism> allMechanisms = storageClient.getAllMechanisms();
         for(Mechanism mechanism : allMechanisms){
-            String jsonData = mechanism.toJson();
-            mechanismList.put(mechanism.getMechanismUID(), jsonData);
+            mechanismList.put(mechanism.getMechanismUID(), channelCodec.toMap(mechanism));
         }
 
         flutterResult.success(mechanismList);
@@ -358,11 +611,11 @@ public class FRAClientWrapper {
         try {
             PushNotification pushNotification = getNotificationByMessageId(messageId);
             if (pushNotification != null) {
-                flutterResult.success(pushNotification.toJson());
+                flutterResult.success(channelCodec.toMap(pushNotification));
             } else {
-                pushNotification = fraClient.handleMessage(messageId, message);
+                pushNotification = getClient().handleMessage(messageId, message);
                 if(pushNotification != null) {
-                    flutterResult.success(pushNotification.toJson());
+                    flutterResult.success(channelCodec.toMap(pushNotification));
                 } else {
                     flutterResult.success(null);
                 }
@@ -376,13 +629,17 @@ public class FRAClientWrapper {
 
     protected PushNotification handleMessageInBackground(String messageId, String message) {
         try {
-            PushNotification pushNotification = fraClient.handleMessage(messageId, message);
+            PushNotification pushNotification = getClient().handleMessage(messageId, message);
+            final MethodChannel channel = this.channel;
             if(channel != null && pushNotification != null) {
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                runOnMainThread(new Runnable() {
                     public void run() {
                         channel.invokeMethod("onMessage", pushNotification.toJson());
                     }
                 });
+            } else if(pushNotification != null) {
+                // No application engine is attached, deliver it to the background handler
+                FRABackgroundEngine.getInstance(context).deliver(channelCodec.toMap(pushNotification));
             }
             return pushNotification;
         } catch (InvalidNotificationException e) {
@@ -392,25 +649,19 @@ public class FRAClientWrapper {
 
     public void performPushAuthentication(String notificationId, boolean accept,
                                           Result flutterResult) {
-        PushNotification pushNotification = fraClient.getNotification(notificationId);
-        if (accept) {
-            pushNotification.accept(pushAuthenticationListener(pushNotification, flutterResult));
-        } else {
-            denyMessage(pushNotification, flutterResult);
-        }
+        PushNotification pushNotification = getClient().getNotification(notificationId);
+        FRAPushOutbox.getInstance(context).submit(pushNotification, accept, null,
+                pushAuthenticationListener(pushNotification, flutterResult));
     }
 
     public void performPushAuthenticationWithChallenge(String notificationId,
                                                        String challengeResponse,
                                                        boolean accept,
                                                        Result flutterResult) {
-        PushNotification pushNotification = fraClient.getNotification(notificationId);
-        if (accept) {
-            pushNotification.accept(challengeResponse,
-                    pushAuthenticationListener(pushNotification, flutterResult));
-        } else {
-            denyMessage(pushNotification, flutterResult);
-        }
+        PushNotification pushNotification = getClient().getNotification(notificationId);
+        FRAPushOutbox.getInstance(context).submit(pushNotification, accept,
+                accept ? challengeResponse : null,
+                pushAuthenticationListener(pushNotification, flutterResult));
     }
 
     public void performPushAuthenticationWithBiometric(String notificationId,
@@ -419,7 +670,7 @@ public class FRAClientWrapper {
                                                        boolean accept,
                                                        FragmentActivity activity,
                                                        Result flutterResult) {
-        PushNotification pushNotification = fraClient.getNotification(notificationId);
+        PushNotification pushNotification = getClient().getNotification(notificationId);
         if (accept) {
             pushNotification.accept(title, null, allowDeviceCredentials, activity,
                     pushAuthenticationListener(pushNotification, flutterResult));
@@ -429,15 +680,16 @@ public class FRAClientWrapper {
     }
 
     private void denyMessage(PushNotification pushNotification, Result flutterResult) {
-        pushNotification.deny(pushAuthenticationListener(pushNotification, flutterResult));
+        FRAPushOutbox.getInstance(context).submit(pushNotification, false, null,
+                pushAuthenticationListener(pushNotification, flutterResult));
     }
 
-    private FRAListener<Void> pushAuthenticationListener(PushNotification pushNotification,
-                                                         Result flutterResult) {
-        return new FRAListener<Void>() {
+    private FRAPushOutbox.Listener pushAuthenticationListener(PushNotification pushNotification,
+                                                              Result flutterResult) {
+        return new FRAPushOutbox.Listener() {
             @Override
             public void onSuccess(Void result) {
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                runOnMainThread(new Runnable() {
                     @Override
                     public void run() {
                         flutterResult.success(true);
@@ -447,7 +699,7 @@ public class FRAClientWrapper {
 
             @Override
             public void onException(Exception e) {
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                runOnMainThread(new Runnable() {
                     @Override
                     public void run() {
                         if (e instanceof AccountLockException) {
@@ -460,6 +712,17 @@ public class FRAClientWrapper {
                     }
                 });
             }
+
+            @Override
+            public void onQueued(Exception e) {
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        flutterResult.error("PUSH_RESPONSE_QUEUED",
+                                e.getLocalizedMessage(), pushNotification.toJson());
+                    }
+                });
+            }
         };
     }
 
@@ -539,6 +802,68 @@ public class FRAClientWrapper {
         }
     }
 
+    public void exportStoredData(Result flutterResult) {
+        List<String> accounts = new ArrayList<>();
+        for(Account account : storageClient.getAllAccounts()) {
+            accounts.add(account.serialize());
+        }
+        List<String> mechanisms = new ArrayList<>();
+        for(Mechanism mechanism : storageClient.getAllMechanisms()) {
+            mechanisms.add(mechanism.serialize());
+        }
+        List<String> notifications = new ArrayList<>();
+        for(PushNotification notification : storageClient.getAllNotifications()) {
+            notifications.add(notification.serialize());
+        }
+
+        Map<String, List<String>> data = new HashMap<>();
+        data.put("accounts", accounts);
+        data.put("mechanisms", mechanisms);
+        data.put("notifications", notifications);
+        flutterResult.success(data);
+    }
+
+    public void importStoredData(List<String> accountJsonList,
+                                 List<String> mechanismJsonList,
+                                 List<String> notificationJsonList,
+                                 Result flutterResult) {
+        FRAStorageBatch batch = storageClient.batch();
+        if (accountJsonList != null) {
+            for (String accountJson : accountJsonList) {
+                Account account = Account.deserialize(accountJson);
+                if (account == null) {
+                    Log.e(TAG, "Error importing stored data: invalid account.");
+                    flutterResult.success(false);
+                    return;
+                }
+                batch.setAccount(account);
+            }
+        }
+        if (mechanismJsonList != null) {
+            for (String mechanismJson : mechanismJsonList) {
+                Mechanism mechanism = Mechanism.deserialize(mechanismJson);
+                if (mechanism == null) {
+                    Log.e(TAG, "Error importing stored data: invalid mechanism.");
+                    flutterResult.success(false);
+                    return;
+                }
+                batch.setMechanism(mechanism);
+            }
+        }
+        if (notificationJsonList != null) {
+            for (String notificationJson : notificationJsonList) {
+                PushNotification notification = PushNotification.deserialize(notificationJson);
+                if (notification == null) {
+                    Log.e(TAG, "Error importing stored data: invalid notification.");
+                    flutterResult.success(false);
+                    return;
+                }
+                batch.setNotification(notification);
+            }
+        }
+        flutterResult.success(batch.commit());
+    }
+
     public void getBackup(String id, Result flutterResult) {
         String jsonData = storageClient.getBackup(id);
         if (jsonData != null) {
@@ -560,11 +885,30 @@ public class FRAClientWrapper {
         Account account = storageClient.getAccount(accountId);
         if (account != null) {
             flutterResult.success(storageClient.removeAccount(account));
+        } else {
+            flutterResult.success(false);
         }
     }
 
-    public void removeAllData() {
+    public void removeAllData(Result flutterResult) {
         storageClient.removeAll();
+        flutterResult.success(true);
+    }
+
+    /**
+     * Start preloading the storage caches in the background, if enabled in the configuration.
+     */
+    public void warmUpStorage() {
+        if (config.isWarmUp()) {
+            storageClient.warmUp();
+        }
+    }
+
+    /**
+     * Commit any storage write still pending in the write-behind queue.
+     */
+    public void flushStorage() {
+        storageClient.flush();
     }
 
 }
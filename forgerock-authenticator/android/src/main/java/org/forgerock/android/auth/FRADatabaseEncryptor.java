@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts the rows stored by {@link FRASQLiteBackend} with an AES-GCM key kept in the Android
+ * KeyStore. The encrypted value is the IV followed by the cipher text.
+ */
+class FRADatabaseEncryptor {
+
+    private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_SIZE = 256;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    private final String keyAlias;
+    private SecretKey secretKey;
+
+    FRADatabaseEncryptor(String keyAlias) {
+        this.keyAlias = keyAlias;
+    }
+
+    byte[] encrypt(String value) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, getSecretKey());
+        byte[] iv = cipher.getIV();
+        byte[] encrypted = cipher.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.allocate(iv.length + encrypted.length)
+                .put(iv)
+                .put(encrypted)
+                .array();
+    }
+
+    String decrypt(byte[] value) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, getSecretKey(),
+                new GCMParameterSpec(TAG_LENGTH, value, 0, IV_LENGTH));
+        byte[] decrypted = cipher.doFinal(value, IV_LENGTH, value.length - IV_LENGTH);
+        return new String(decrypted, StandardCharsets.UTF_8);
+    }
+
+    private synchronized SecretKey getSecretKey() throws GeneralSecurityException {
+        if (secretKey != null) {
+            return secretKey;
+        }
+
+        try {
+            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
+            keyStore.load(null);
+            if (keyStore.containsAlias(keyAlias)) {
+                secretKey = ((KeyStore.SecretKeyEntry) keyStore.getEntry(keyAlias, null)).getSecretKey();
+            } else {
+                KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES,
+                        ANDROID_KEYSTORE);
+                keyGenerator.init(new KeyGenParameterSpec.Builder(keyAlias,
+                        KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                        .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                        .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                        .setKeySize(KEY_SIZE)
+                        .build());
+                secretKey = keyGenerator.generateKey();
+            }
+            return secretKey;
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Error loading the Android KeyStore.", e);
+        }
+    }
+
+}
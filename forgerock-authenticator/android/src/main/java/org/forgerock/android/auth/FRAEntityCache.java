@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe in-memory cache of one entity type used by {@link FRAStorageClient}.
+ * <p>
+ * Entries are kept in a {@link ConcurrentHashMap}, so single entity lookups never block. Writers
+ * are expected to hold {@link #getLock()} while updating the backing storage and the cache, which
+ * keeps both in the same order. Readers of the whole collection get an immutable snapshot which is
+ * rebuilt lazily after a write, so they never observe a partially applied update.
+ * <p>
+ * Entities can also be cached in their serialized form, to defer the deserialization until they are
+ * accessed. Serialized entries are not part of {@link #values()}.
+ * <p>
+ * The payloads sent to the Flutter application are memoized per entity, with the write version of
+ * the entity they were encoded from, so they are only encoded again after the entity is written.
+ *
+ * @param <T> the entity type.
+ */
+class FRAEntityCache<T> {
+
+    private final Object lock = new Object();
+    private final ConcurrentHashMap<String, T> entities = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> serialized = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentHashMap<String, Long> entityVersions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Payload<T>> payloads = new ConcurrentHashMap<>();
+    private volatile Snapshot<T> snapshot;
+    private volatile boolean loaded;
+
+    /**
+     * The lock which serializes the writers of this cache.
+     * @return the writer lock.
+     */
+    Object getLock() {
+        return lock;
+    }
+
+    /**
+     * Whether the cache was populated from the backing storage.
+     * @return {@code true} if the cache contains all the stored entities.
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Mark the cache as populated from the backing storage.
+     */
+    void setLoaded() {
+        this.loaded = true;
+    }
+
+    T get(String id) {
+        return id == null ? null : entities.get(id);
+    }
+
+    /**
+     * Whether the entity is cached, either deserialized or in its serialized form.
+     * @param id the entity id.
+     * @return {@code true} if the entity is cached.
+     */
+    boolean contains(String id) {
+        return id != null && (entities.containsKey(id) || serialized.containsKey(id));
+    }
+
+    T put(String id, T entity) {
+        T previous = entities.put(id, entity);
+        // Removed after the entity is added, so a reader always finds one of them
+        serialized.remove(id);
+        entityVersions.put(id, version.incrementAndGet());
+        payloads.remove(id);
+        return previous;
+    }
+
+    T remove(String id) {
+        serialized.remove(id);
+        T previous = entities.remove(id);
+        if (previous != null) {
+            version.incrementAndGet();
+        }
+        entityVersions.remove(id);
+        payloads.remove(id);
+        return previous;
+    }
+
+    void clear() {
+        entities.clear();
+        serialized.clear();
+        entityVersions.clear();
+        payloads.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * Encodes an entity into the payload sent to the Flutter application.
+     * @param <T> the entity type.
+     */
+    interface Encoder<T> {
+        Map<String, Object> encode(T entity);
+    }
+
+    /**
+     * Get the payload of an entity, encoding it only if it was written since the last call. Entities
+     * which are not cached are encoded on every call.
+     * @param id the entity id.
+     * @param entity the entity.
+     * @param encoder encodes the entity if the memoized payload is missing or stale.
+     * @return the payload, which must not be modified.
+     */
+    Map<String, Object> getPayload(String id, T entity, Encoder<T> encoder) {
+        Long entityVersion = id != null ? entityVersions.get(id) : null;
+        if (entityVersion == null) {
+            return Collections.unmodifiableMap(encoder.encode(entity));
+        }
+
+        Payload<T> payload = payloads.get(id);
+        if (payload != null && payload.version == entityVersion && payload.entity == entity) {
+            return payload.data;
+        }
+
+        // The version is read before encoding, so a write made meanwhile makes this payload stale
+        Map<String, Object> data = Collections.unmodifiableMap(encoder.encode(entity));
+        if (entities.get(id) == entity) {
+            payloads.put(id, new Payload<>(entityVersion, entity, data));
+        }
+        return data;
+    }
+
+    /**
+     * Cache the serialized form of an entity, to be deserialized on first access.
+     * @param id the entity id.
+     * @param json the serialized entity.
+     */
+    void putSerialized(String id, String json) {
+        serialized.put(id, json);
+    }
+
+    String getSerialized(String id) {
+        return id == null ? null : serialized.get(id);
+    }
+
+    void removeSerialized(String id) {
+        serialized.remove(id);
+    }
+
+    /**
+     * Whether some entities are only cached in their serialized form.
+     * @return {@code true} if some entities were not deserialized yet.
+     */
+    boolean hasSerialized() {
+        return !serialized.isEmpty();
+    }
+
+    /**
+     * Get a copy of the entities only cached in their serialized form.
+     * @return the serialized entities by id.
+     */
+    Map<String, String> getAllSerialized() {
+        return new HashMap<>(serialized);
+    }
+
+    /**
+     * Drop the cached entities, so they are loaded again from the backing storage on next access.
+     */
+    void invalidate() {
+        loaded = false;
+        clear();
+    }
+
+    /**
+     * The number of cached entities, including the ones not deserialized yet.
+     * @return the number of entities.
+     */
+    int size() {
+        return entities.size() + serialized.size();
+    }
+
+    /**
+     * Get an immutable snapshot of all the cached entities.
+     * @return the cached entities.
+     */
+    List<T> values() {
+        long currentVersion = version.get();
+        Snapshot<T> current = snapshot;
+        if (current != null && current.version == currentVersion) {
+            return current.values;
+        }
+
+        List<T> values = Collections.unmodifiableList(new ArrayList<>(entities.values()));
+        // Only publish the snapshot if no writer changed the cache while it was being built
+        if (version.get() == currentVersion) {
+            snapshot = new Snapshot<>(currentVersion, values);
+        }
+        return values;
+    }
+
+    private static final class Payload<T> {
+        final long version;
+        final T entity;
+        final Map<String, Object> data;
+
+        Payload(long version, T entity, Map<String, Object> data) {
+            this.version = version;
+            this.entity = entity;
+            this.data = data;
+        }
+    }
+
+    private static final class Snapshot<T> {
+        final long version;
+        final List<T> values;
+
+        Snapshot(long version, List<T> values) {
+            this.version = version;
+            this.values = values;
+        }
+    }
+
+}
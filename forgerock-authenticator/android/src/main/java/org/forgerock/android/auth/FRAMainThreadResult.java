@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * {@link Result} which can be completed from any thread: the reply is posted to the Flutter
+ * platform thread, as required by the engine.
+ */
+class FRAMainThreadResult implements Result {
+
+    private final Result result;
+
+    FRAMainThreadResult(@NonNull Result result) {
+        this.result = result;
+    }
+
+    @Override
+    public void success(@Nullable final Object value) {
+        FRAClientWrapper.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                result.success(value);
+            }
+        });
+    }
+
+    @Override
+    public void error(@NonNull final String errorCode, @Nullable final String errorMessage,
+                      @Nullable final Object errorDetails) {
+        FRAClientWrapper.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                result.error(errorCode, errorMessage, errorDetails);
+            }
+        });
+    }
+
+    @Override
+    public void notImplemented() {
+        FRAClientWrapper.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                result.notImplemented();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the ids of the recently received push messages, to ignore the messages delivered more
+ * than once by FCM. The cache is bounded both in size, evicting the least recently received ids
+ * first, and in time: an id is forgotten once its time to live has elapsed.
+ */
+class FRAMessageDeduplicator {
+
+    private final int maxSize;
+    private final long ttlMillis;
+
+    //Message id to time received, in insertion order
+    private final LinkedHashMap<String, Long> messageIds;
+
+    FRAMessageDeduplicator(final int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.messageIds = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > FRAMessageDeduplicator.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Record a received message.
+     * @param messageId the message id, messages without id are never considered duplicates.
+     * @return {@code true} if the message was not received within the time to live.
+     */
+    synchronized boolean markReceived(String messageId) {
+        if (messageId == null) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        evictExpired(now);
+        if (messageIds.containsKey(messageId)) {
+            return false;
+        }
+        messageIds.put(messageId, now);
+        return true;
+    }
+
+    /**
+     * Forget a message, so it is processed again if delivered again.
+     * @param messageId the message id.
+     */
+    synchronized void forget(String messageId) {
+        if (messageId != null) {
+            messageIds.remove(messageId);
+        }
+    }
+
+    synchronized int size() {
+        return messageIds.size();
+    }
+
+    private void evictExpired(long now) {
+        // Entries are in insertion order, so the expired ones come first
+        Iterator<Long> iterator = messageIds.values().iterator();
+        while (iterator.hasNext() && now - iterator.next() >= ttlMillis) {
+            iterator.remove();
+        }
+    }
+
+}
@@ -10,18 +10,45 @@ package org.forgerock.android.auth;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.google.firebase.messaging.RemoteMessage;
 
-import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class FRAMessagingReceiver extends BroadcastReceiver {
     private static final String TAG = FRAMessagingReceiver.class.getSimpleName();
     private static final String MESSAGE = "message";
     private static final String MESSAGE_ID = "messageId";
 
-    static HashMap<String, RemoteMessage> notifications = new HashMap<>();
+    private static final int RECEIVED_MESSAGES_MAX_SIZE = 100;
+    private static final long RECEIVED_MESSAGES_TTL = TimeUnit.MINUTES.toMillis(10);
+    //Time a broadcast is kept alive for its message, below the 10 seconds receiver timeout
+    private static final long BROADCAST_BUDGET = TimeUnit.SECONDS.toMillis(8);
+
+    //Ids of the recently received messages, used to ignore FCM redeliveries
+    static final FRAMessageDeduplicator receivedMessages =
+            new FRAMessageDeduplicator(RECEIVED_MESSAGES_MAX_SIZE, RECEIVED_MESSAGES_TTL);
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    //Processes the messages off the main thread, one at a time and in the order received. The
+    //queue is not bounded, as the broadcasts of the queued messages are finished on time anyway
+    private static final ExecutorService executor = new ThreadPoolExecutor(1, 1,
+            0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "FRAMessaging");
+                }
+            });
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -35,37 +62,104 @@ public class FRAMessagingReceiver extends BroadcastReceiver {
             return;
         }
         
-        RemoteMessage remoteMessage = new RemoteMessage(intent.getExtras());
+        final RemoteMessage remoteMessage = new RemoteMessage(intent.getExtras());
         Log.d(TAG, "RemoteMessage Data: " + remoteMessage.getData());
 
         // Process the RemoteMessage if the message contains a notification payload.
         if (remoteMessage.getData().get(MESSAGE) != null) {
-            notifications.put(remoteMessage.getMessageId(), remoteMessage);
-
-            // Send remote message received to be processed by the Authenticator SDK
-            PushNotification pushNotification = FRAClientWrapper
-                    .getInstanceInBackground(context.getApplicationContext())
-                    .handleMessageInBackground(remoteMessage.getData().get(MESSAGE_ID),
-                            remoteMessage.getData().get(MESSAGE));
-
-            if (pushNotification != null) {
-                Log.d(TAG, "Push Notification registered successfully.");
-            } else {
-                Log.d(TAG, "Failed to register the Push Notification.");
+            if (!receivedMessages.markReceived(remoteMessage.getMessageId())) {
+                Log.d(TAG, "RemoteMessage already received. Operation cancelled.");
+                return;
             }
 
-            // If it's a valid Push message from AM, create a system notification
-            if (pushNotification != null && !FRAMessagingUtil.isApplicationForeground(context)) {
-                Log.d(TAG, "Creating system notification...");
-                FRAMessagingUtil.createSystemNotification(context.getApplicationContext(),
-                        pushNotification);
-            } else {
-                Log.d(TAG, "System notification not created. The app is on foreground.");
-            }
+            // Keep the process alive until the message is processed in the background, within
+            // the receiver timeout
+            final Context applicationContext = context.getApplicationContext();
+            final BroadcastFinisher finish = new BroadcastFinisher(goAsync());
+            mainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (finish.finish()) {
+                        Log.w(TAG, "RemoteMessage not processed in time, finishing the broadcast "
+                                + "and processing it in the background.");
+                    }
+                }
+            }, BROADCAST_BUDGET);
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        processMessage(applicationContext, remoteMessage);
+                    } finally {
+                        // Keep the process alive until the summary of a burst is up to date
+                        FRAMessagingUtil.whenSummaryUpdated(finish);
+                    }
+                }
+            });
         } else {
             Log.d(TAG, "Failed to obtain RemoteMessage from intent.");
         }
     }
 
-}
+    private void processMessage(Context context, RemoteMessage remoteMessage) {
+        // Send remote message received to be processed by the Authenticator SDK. The onMessage
+        // channel call is posted to the main thread.
+        FRAClientWrapper clientWrapper = FRAClientWrapper.getInstanceInBackground(context);
+        PushNotification pushNotification = clientWrapper
+                .handleMessageInBackground(remoteMessage.getData().get(MESSAGE_ID),
+                        remoteMessage.getData().get(MESSAGE));
+
+        // The process can be killed once the broadcast is handled, persist the notification
+        clientWrapper.flushStorage();
+
+        if (pushNotification != null) {
+            Log.d(TAG, "Push Notification registered successfully.");
+        } else {
+            Log.d(TAG, "Failed to register the Push Notification.");
+            // Process the message again if it is delivered again
+            receivedMessages.forget(remoteMessage.getMessageId());
+        }
+
+        // If it's a valid Push message from AM, create a system notification
+        if (pushNotification != null && !FRAMessagingUtil.isApplicationForeground(context)) {
+            Log.d(TAG, "Creating system notification...");
+            FRAMessagingUtil.createSystemNotification(context, pushNotification);
+        } else {
+            Log.d(TAG, "System notification not created. The app is on foreground.");
+        }
+    }
+
+    /**
+     * Finishes a broadcast once, either when its message is processed or when its time is up.
+     */
+    private static class BroadcastFinisher implements Runnable {
+        private final PendingResult pendingResult;
+        private boolean finished = false;
+
+        BroadcastFinisher(PendingResult pendingResult) {
+            this.pendingResult = pendingResult;
+        }
+
+        @Override
+        public void run() {
+            finish();
+        }
+
+        /**
+         * Finish the broadcast, unless it was already finished.
+         * @return {@code true} if the broadcast was finished by this call.
+         */
+        boolean finish() {
+            synchronized (this) {
+                if (finished) {
+                    return false;
+                }
+                finished = true;
+            }
+            pendingResult.finish();
+            return true;
+        }
+    }
 
+}
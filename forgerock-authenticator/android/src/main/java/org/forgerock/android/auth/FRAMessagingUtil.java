@@ -19,6 +19,9 @@ import android.content.pm.PackageManager;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.service.notification.StatusBarNotification;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -26,16 +29,41 @@ import androidx.core.app.NotificationManagerCompat;
 
 import org.forgerock.forgerock_authenticator.R;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 class FRAMessagingUtil {
 
     private static final String TAG = FRAMessagingUtil.class.getSimpleName();
 
+    private static final String NOTIFICATION_GROUP = "org.forgerock.authenticator.PUSH_NOTIFICATIONS";
+    private static final int SUMMARY_NOTIFICATION_ID = FRANotificationIdAllocator.FIRST_ID - 1;
+    //Only the first notification of a mechanism within this window plays a sound
+    private static final long ALERT_RATE_LIMIT = TimeUnit.SECONDS.toMillis(10);
+    //Minimum time between two updates of the summary notification
+    private static final long SUMMARY_UPDATE_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
     private static Context applicationContext;
-    private static int messageCount = 1;
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
     private static final Uri defaultSoundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
 
+    //Channel, strings and launch intent, loaded once per process and locale
+    private static volatile boolean channelCreated = false;
+    private static volatile NotificationResources notificationResources;
+
+    //Burst state, guarded by the class lock
+    private static final Map<String, Long> lastAlertTimes = new HashMap<>();
+    private static long lastNotificationTime = 0;
+    private static long lastSummaryTime = 0;
+    private static boolean summaryUpdateScheduled = false;
+    private static List<Runnable> summaryUpdateCallbacks = new ArrayList<>();
+
     /**
      * Sets the application context.
      * @param applicationContext application context.
@@ -89,41 +117,183 @@ class FRAMessagingUtil {
      * @param pushNotification the PushNotification to be processed.
      */
     static void createSystemNotification(Context context, PushNotification pushNotification) {
-        int id = messageCount++;
-
         if (context == null) {
             context = applicationContext;
         }
 
-        Notification notification = buildNotification(context, id, pushNotification);
+        int id = FRANotificationIdAllocator.getInstance(context).allocate(pushNotification.getId());
+
+        boolean alert;
+        boolean updateSummary = false;
+        long summaryDelay = -1;
+        synchronized (FRAMessagingUtil.class) {
+            long now = System.currentTimeMillis();
+            alert = shouldAlert(pushNotification.getMechanismUID(), now);
+
+            boolean burst = now - lastNotificationTime < ALERT_RATE_LIMIT;
+            lastNotificationTime = now;
+            if (burst && now - lastSummaryTime >= SUMMARY_UPDATE_INTERVAL) {
+                updateSummary = true;
+                lastSummaryTime = now;
+            } else if (burst && !summaryUpdateScheduled) {
+                // Throttled, update the summary once the interval elapsed so it shows the final count
+                summaryUpdateScheduled = true;
+                summaryDelay = SUMMARY_UPDATE_INTERVAL - (now - lastSummaryTime);
+            }
+        }
+
+        NotificationResources resources = getNotificationResources(context);
+        Notification notification = buildNotification(context, resources, id, pushNotification, alert);
         Log.d(TAG, "System notification created.");
-        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-        notificationManager.notify(id, notification);
+        NotificationManagerCompat.from(context).notify(id, notification);
+
+        // Group the notifications of a burst under a single summary
+        if (updateSummary) {
+            updateSummaryNotification(context, id, -1);
+        }
+        if (summaryDelay >= 0) {
+            final Context summaryContext = context;
+            mainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    List<Runnable> callbacks;
+                    synchronized (FRAMessagingUtil.class) {
+                        summaryUpdateScheduled = false;
+                        lastSummaryTime = System.currentTimeMillis();
+                    }
+                    try {
+                        updateSummaryNotification(summaryContext, -1, -1);
+                    } finally {
+                        synchronized (FRAMessagingUtil.class) {
+                            callbacks = summaryUpdateCallbacks;
+                            summaryUpdateCallbacks = new ArrayList<>();
+                        }
+                        for (Runnable callback : callbacks) {
+                            callback.run();
+                        }
+                    }
+                }
+            }, summaryDelay);
+        }
+    }
+
+    /**
+     * Run the callback once the pending update of the summary notification is done, or now if
+     * there is none. Used to keep a broadcast alive until the summary shows the final count of a
+     * burst, as the process may be killed once the broadcast is finished.
+     *
+     * @param callback the callback, run on the main thread or on the calling thread.
+     */
+    static void whenSummaryUpdated(Runnable callback) {
+        synchronized (FRAMessagingUtil.class) {
+            if (summaryUpdateScheduled) {
+                summaryUpdateCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Post the summary notification with the number of push notifications still visible, or
+     * cancel it when less than two are.
+     *
+     * @param context context.
+     * @param postedId the id of a notification just posted, which may not be reported as active
+     *                 yet, or {@code -1}.
+     * @param cancelledId the id of a notification just cancelled, which may still be reported as
+     *                    active, or {@code -1}.
+     */
+    private static void updateSummaryNotification(Context context, int postedId, int cancelledId) {
+        NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+        if (notificationManager == null) {
+            return;
+        }
+
+        Set<Integer> visibleIds = new HashSet<>();
+        for (StatusBarNotification active : notificationManager.getActiveNotifications()) {
+            if (active.getId() != SUMMARY_NOTIFICATION_ID
+                    && NOTIFICATION_GROUP.equals(active.getNotification().getGroup())) {
+                visibleIds.add(active.getId());
+            }
+        }
+        if (postedId != -1) {
+            visibleIds.add(postedId);
+        }
+        visibleIds.remove(cancelledId);
+
+        if (visibleIds.size() > 1) {
+            notificationManager.notify(SUMMARY_NOTIFICATION_ID, buildSummaryNotification(context,
+                    getNotificationResources(context), visibleIds.size()));
+        } else {
+            notificationManager.cancel(SUMMARY_NOTIFICATION_ID);
+        }
+    }
+
+    /**
+     * Cancel the system notification posted for the Push Notification, if any, and update the
+     * summary notification.
+     *
+     * @param context context.
+     * @param notificationId the PushNotification unique ID.
+     * @param fallbackId the system notification id to cancel if no notification is registered
+     *                   for the Push Notification, or {@code -1}.
+     */
+    static void cancelSystemNotification(Context context, String notificationId, int fallbackId) {
+        int id = FRANotificationIdAllocator.getInstance(context).remove(notificationId);
+        if (id == -1) {
+            id = fallbackId;
+        }
+        if (id != -1) {
+            NotificationManagerCompat.from(context).cancel(id);
+            updateSummaryNotification(context, -1, id);
+        }
+    }
+
+    /**
+     * Whether the notification of the given mechanism should play a sound, at most once per
+     * mechanism within the rate limit window. Must be called while holding the class lock.
+     */
+    private static boolean shouldAlert(String mechanismUID, long now) {
+        Long lastAlertTime = lastAlertTimes.get(mechanismUID);
+        if (lastAlertTime != null && now - lastAlertTime < ALERT_RATE_LIMIT) {
+            return false;
+        }
+        lastAlertTimes.put(mechanismUID, now);
+        return true;
     }
 
-    private static Notification buildNotification(Context context, int requestCode, PushNotification pushNotification) {
+    private static Notification buildNotification(Context context, NotificationResources resources,
+                                                  int requestCode, PushNotification pushNotification,
+                                                  boolean alert) {
         Log.d(TAG, "Building notification...");
-        createNotificationChannel(context);
+        createNotificationChannel(context, resources);
 
         int intentFlags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
                 ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
                 : PendingIntent.FLAG_UPDATE_CURRENT;
 
-        Intent intent = getLaunchIntent(context);
-        PendingIntent contentIntent = PendingIntent.getActivity(context, requestCode, intent, intentFlags);
+        PendingIntent contentIntent = PendingIntent.getActivity(context, requestCode,
+                resources.launchIntent, intentFlags);
 
-        String title = getTitle(context, pushNotification);
-        String body = getBody(context, pushNotification);
+        String title = getTitle(context, resources, pushNotification);
+        String body = getBody(resources, pushNotification);
 
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, context.getString(R.string.channel_id))
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, resources.channelId)
                 .setSmallIcon(R.drawable.forgerock_notification)
                 .setContentTitle(title)
                 .setContentText(body)
                 .setAutoCancel(true)
                 .setPriority(NotificationCompat.PRIORITY_DEFAULT)
-                .setSound(defaultSoundUri)
+                .setGroup(NOTIFICATION_GROUP)
                 .setContentIntent(contentIntent);
 
+        if (alert) {
+            builder.setSound(defaultSoundUri);
+        } else {
+            builder.setSilent(true);
+        }
+
         if (pushNotification.getPushType() == PushType.DEFAULT) {
             Intent acceptIntent = new Intent(context, FRANotificationActionReceiver.class);
             acceptIntent.setAction(FRANotificationActionReceiver.ACCEPT_ACTION);
@@ -132,7 +302,7 @@ class FRAMessagingUtil {
             acceptIntent.putExtra(FRANotificationActionReceiver.MESSAGE_COUNT_STRING_EXTRA,
                     requestCode);
             PendingIntent acceptPendingIntent = PendingIntent.getBroadcast(context,
-                    0, acceptIntent, intentFlags);
+                    requestCode, acceptIntent, intentFlags);
 
             Intent rejectIntent = new Intent(context, FRANotificationActionReceiver.class);
             rejectIntent.setAction(FRANotificationActionReceiver.REJECT_ACTION);
@@ -141,48 +311,71 @@ class FRAMessagingUtil {
             rejectIntent.putExtra(FRANotificationActionReceiver.MESSAGE_COUNT_STRING_EXTRA,
                     requestCode);
             PendingIntent rejectPendingIntent = PendingIntent.getBroadcast(context,
-                    0, rejectIntent, intentFlags);
+                    requestCode, rejectIntent, intentFlags);
 
-            builder.addAction(0, context.getString(R.string.system_notification_action_approve),
-                    acceptPendingIntent);
-            builder.addAction(0, context.getString(R.string.system_notification_action_deny),
-                    rejectPendingIntent);
+            builder.addAction(0, resources.actionApprove, acceptPendingIntent);
+            builder.addAction(0, resources.actionDeny, rejectPendingIntent);
         }
 
         return builder.build();
     }
 
-    private static void createNotificationChannel(Context context){
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+    private static Notification buildSummaryNotification(Context context,
+                                                         NotificationResources resources,
+                                                         int count) {
+        int intentFlags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+                : PendingIntent.FLAG_UPDATE_CURRENT;
+        PendingIntent contentIntent = PendingIntent.getActivity(context, SUMMARY_NOTIFICATION_ID,
+                resources.launchIntent, intentFlags);
+        String text = context.getResources()
+                .getQuantityString(R.plurals.system_notification_summary, count, count);
+
+        return new NotificationCompat.Builder(context, resources.channelId)
+                .setSmallIcon(R.drawable.forgerock_notification)
+                .setContentTitle(resources.channelName)
+                .setContentText(text)
+                .setStyle(new NotificationCompat.InboxStyle().setSummaryText(text))
+                .setAutoCancel(true)
+                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+                .setGroup(NOTIFICATION_GROUP)
+                .setGroupSummary(true)
+                .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+                .setContentIntent(contentIntent)
+                .build();
+    }
+
+    private static void createNotificationChannel(Context context, NotificationResources resources){
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && !channelCreated) {
             Log.d(TAG, "Creating notification channel.");
             int importance = NotificationManager.IMPORTANCE_DEFAULT;
-            String channelId = context.getString(R.string.channel_id);
-            String channelName = context.getString(R.string.channel_name);
-            NotificationChannel channel = new NotificationChannel(channelId, channelName, importance);
+            NotificationChannel channel = new NotificationChannel(resources.channelId,
+                    resources.channelName, importance);
             NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
             if (notificationManager != null) {
                 notificationManager.createNotificationChannel(channel);
+                channelCreated = true;
             }
         }
     }
 
-    private static String getTitle(Context context, PushNotification pushNotification) {
+    private static String getTitle(Context context, NotificationResources resources,
+                                   PushNotification pushNotification) {
         if (pushNotification.getMessage() != null) {
             return pushNotification.getMessage();
         } else {
             Mechanism mechanism = FRAClientWrapper
                     .getInstanceInBackground(context)
                     .getMechanism(pushNotification);
-            return String.format(context.getString(R.string.system_notification_title),
-                    mechanism.getAccountName(), mechanism.getIssuer());
+            return String.format(resources.title, mechanism.getAccountName(), mechanism.getIssuer());
         }
     }
 
-    private static String getBody(Context context, PushNotification pushNotification) {
+    private static String getBody(NotificationResources resources, PushNotification pushNotification) {
         if (pushNotification.getPushType() == PushType.DEFAULT) {
-            return context.getString(R.string.system_notification_body_with_actions);
+            return resources.bodyWithActions;
         } else {
-            return context.getString(R.string.system_notification_body);
+            return resources.body;
         }
     }
 
@@ -191,4 +384,43 @@ class FRAMessagingUtil {
         PackageManager packageManager = context.getPackageManager();
         return packageManager.getLaunchIntentForPackage(packageName);
     }
+
+    /**
+     * Get the cached notification resources, loading them again if the locale changed.
+     */
+    private static NotificationResources getNotificationResources(Context context) {
+        NotificationResources resources = notificationResources;
+        if (resources == null || !resources.locale.equals(Locale.getDefault())) {
+            resources = new NotificationResources(context);
+            notificationResources = resources;
+        }
+        return resources;
+    }
+
+    /**
+     * Strings and launch intent used to build the system notifications.
+     */
+    private static class NotificationResources {
+        final Locale locale;
+        final String channelId;
+        final String channelName;
+        final String title;
+        final String body;
+        final String bodyWithActions;
+        final String actionApprove;
+        final String actionDeny;
+        final Intent launchIntent;
+
+        NotificationResources(Context context) {
+            this.locale = Locale.getDefault();
+            this.channelId = context.getString(R.string.channel_id);
+            this.channelName = context.getString(R.string.channel_name);
+            this.title = context.getString(R.string.system_notification_title);
+            this.body = context.getString(R.string.system_notification_body);
+            this.bodyWithActions = context.getString(R.string.system_notification_body_with_actions);
+            this.actionApprove = context.getString(R.string.system_notification_action_approve);
+            this.actionDeny = context.getString(R.string.system_notification_action_deny);
+            this.launchIntent = getLaunchIntent(context);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import java.util.Map;
+
+/**
+ * {@link FRAStorageBackend} which records the time spent in the backing stores in the
+ * {@link FRAMetrics#getInstance() metrics}, as the storage phase of the channel method being run.
+ */
+class FRAMeteredBackend implements FRAStorageBackend {
+
+    private final FRAStorageBackend backend;
+    private final FRAMetrics metrics = FRAMetrics.getInstance();
+
+    FRAMeteredBackend(FRAStorageBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public Map<String, String> getAll(Table table) {
+        long start = metrics.start();
+        try {
+            return backend.getAll(table);
+        } finally {
+            metrics.record(FRAMetrics.Phase.STORAGE, start);
+        }
+    }
+
+    @Override
+    public String get(Table table, String id) {
+        long start = metrics.start();
+        try {
+            return backend.get(table, id);
+        } finally {
+            metrics.record(FRAMetrics.Phase.STORAGE, start);
+        }
+    }
+
+    @Override
+    public Map<String, String> getMechanismsByAccount(String issuer, String accountName) {
+        long start = metrics.start();
+        try {
+            return backend.getMechanismsByAccount(issuer, accountName);
+        } finally {
+            metrics.record(FRAMetrics.Phase.STORAGE, start);
+        }
+    }
+
+    @Override
+    public Map<String, String> getByMechanismUID(Table table, String mechanismUID) {
+        long start = metrics.start();
+        try {
+            return backend.getByMechanismUID(table, mechanismUID);
+        } finally {
+            metrics.record(FRAMetrics.Phase.STORAGE, start);
+        }
+    }
+
+    @Override
+    public String getNotificationByMessageId(String messageId) {
+        long start = metrics.start();
+        try {
+            return backend.getNotificationByMessageId(messageId);
+        } finally {
+            metrics.record(FRAMetrics.Phase.STORAGE, start);
+        }
+    }
+
+    @Override
+    public boolean commit(FRAStorageBatch batch) {
+        long start = metrics.start();
+        try {
+            return backend.commit(batch);
+        } finally {
+            metrics.record(FRAMetrics.Phase.STORAGE, start);
+        }
+    }
+
+    @Override
+    public boolean clear(Table... tables) {
+        long start = metrics.start();
+        try {
+            return backend.clear(tables);
+        } finally {
+            metrics.record(FRAMetrics.Phase.STORAGE, start);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long start = metrics.start();
+        try {
+            return backend.isEmpty();
+        } finally {
+            metrics.record(FRAMetrics.Phase.STORAGE, start);
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * {@link Result} which counts the call of a channel method and records its total latency in the
+ * {@link FRAMetrics#getInstance() metrics} when it is replied to.
+ */
+class FRAMeteredResult implements Result {
+
+    private final FRAMetrics metrics = FRAMetrics.getInstance();
+    private final String method;
+    private final Result result;
+    private final long start;
+
+    FRAMeteredResult(@NonNull String method, @NonNull Result result) {
+        this.method = method;
+        this.result = result;
+        this.start = metrics.start();
+    }
+
+    @Override
+    public void success(@Nullable Object value) {
+        complete(false);
+        result.success(value);
+    }
+
+    @Override
+    public void error(@NonNull String errorCode, @Nullable String errorMessage,
+                      @Nullable Object errorDetails) {
+        complete(true);
+        result.error(errorCode, errorMessage, errorDetails);
+    }
+
+    @Override
+    public void notImplemented() {
+        complete(true);
+        result.notImplemented();
+    }
+
+    private void complete(boolean error) {
+        metrics.count(method, error);
+        metrics.record(method, FRAMetrics.Phase.TOTAL, start);
+    }
+
+}
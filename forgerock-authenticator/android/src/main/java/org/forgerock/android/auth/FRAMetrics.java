@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and error metrics of the channel methods. Each method has a call and error counter, and
+ * a latency histogram per {@link Phase}. Histograms use power of two buckets of microseconds, so
+ * recording a value is a few atomic increments and the percentiles are estimated with a precision
+ * of one bucket.
+ * <p>
+ * Phases recorded on a worker thread are attributed to the channel method the thread is running,
+ * see {@link #enter(String)}. Phases recorded outside of a channel method are attributed to
+ * {@code background}.
+ */
+final class FRAMetrics {
+
+    /**
+     * The phases of a channel method.
+     */
+    enum Phase {
+        /** Time from the channel call to the reply, as seen by the platform thread. */
+        TOTAL,
+        /** Time waiting for a worker thread. */
+        QUEUE,
+        /** Time reading and writing the encrypted stores. */
+        STORAGE,
+        /** Time generating the OATH codes, including storing the HOTP counters. */
+        CRYPTO,
+        /** Time waiting for the server to receive the push responses. */
+        NETWORK,
+        /** Time encoding the entities sent to the Flutter application. */
+        SERIALIZATION
+    }
+
+    static final String BACKGROUND = "background";
+
+    private static final int BUCKETS = 40;
+    private static final FRAMetrics INSTANCE = new FRAMetrics();
+
+    private final ThreadLocal<String> currentMethod = new ThreadLocal<>();
+    private volatile ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private volatile boolean enabled = false;
+
+    private FRAMetrics() {
+    }
+
+    static FRAMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enable or disable the metrics. When disabled, nothing is recorded.
+     * @param enabled {@code true} to record the metrics.
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the start time of a measure.
+     * @return the current time in nanoseconds, or {@code 0} if the metrics are disabled.
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Attribute the phases recorded on the calling thread to a channel method, until
+     * {@link #exit(String)} is called.
+     * @param method the channel method name.
+     * @return the method the thread was running before, to be restored by {@link #exit(String)}.
+     */
+    String enter(String method) {
+        String previous = currentMethod.get();
+        currentMethod.set(method);
+        return previous;
+    }
+
+    /**
+     * Restore the channel method the calling thread was running before {@link #enter(String)}.
+     * @param previous the value returned by {@link #enter(String)}.
+     */
+    void exit(String previous) {
+        if (previous == null) {
+            currentMethod.remove();
+        } else {
+            currentMethod.set(previous);
+        }
+    }
+
+    /**
+     * The channel method run by the calling thread.
+     * @return the method name, or {@code background}.
+     */
+    String getCurrentMethod() {
+        String method = currentMethod.get();
+        return method != null ? method : BACKGROUND;
+    }
+
+    /**
+     * Record a phase of the channel method run by the calling thread.
+     * @param phase the phase.
+     * @param startNanos the value returned by {@link #start()}.
+     */
+    void record(Phase phase, long startNanos) {
+        record(getCurrentMethod(), phase, startNanos);
+    }
+
+    /**
+     * Record a phase of a channel method.
+     * @param method the method name.
+     * @param phase the phase.
+     * @param startNanos the value returned by {@link #start()}.
+     */
+    void record(String method, Phase phase, long startNanos) {
+        if (!enabled || startNanos == 0) {
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        getMethodMetrics(method).histograms[phase.ordinal()].record(micros);
+    }
+
+    /**
+     * Count a call of a channel method.
+     * @param method the method name.
+     * @param error {@code true} if the call failed.
+     */
+    void count(String method, boolean error) {
+        if (!enabled) {
+            return;
+        }
+        MethodMetrics methodMetrics = getMethodMetrics(method);
+        methodMetrics.calls.incrementAndGet();
+        if (error) {
+            methodMetrics.errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get a snapshot of the metrics. Latencies are in milliseconds.
+     * @param reset {@code true} to start counting again from zero.
+     * @return the metrics by method name, and the time of the snapshot.
+     */
+    Map<String, Object> snapshot(boolean reset) {
+        Map<String, MethodMetrics> current = this.methods;
+        if (reset) {
+            this.methods = new ConcurrentHashMap<>();
+        }
+
+        Map<String, Object> methodsSnapshot = new HashMap<>();
+        for (Map.Entry<String, MethodMetrics> entry : current.entrySet()) {
+            methodsSnapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("timestamp", System.currentTimeMillis());
+        snapshot.put("methods", methodsSnapshot);
+        return snapshot;
+    }
+
+    private MethodMetrics getMethodMetrics(String method) {
+        ConcurrentHashMap<String, MethodMetrics> current = this.methods;
+        MethodMetrics methodMetrics = current.get(method);
+        if (methodMetrics == null) {
+            MethodMetrics created = new MethodMetrics();
+            methodMetrics = current.putIfAbsent(method, created);
+            if (methodMetrics == null) {
+                methodMetrics = created;
+            }
+        }
+        return methodMetrics;
+    }
+
+    private static final class MethodMetrics {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final Histogram[] histograms = new Histogram[Phase.values().length];
+
+        MethodMetrics() {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new Histogram();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> phases = new HashMap<>();
+            for (Phase phase : Phase.values()) {
+                Histogram histogram = histograms[phase.ordinal()];
+                if (histogram.count.get() > 0) {
+                    phases.put(phase.name().toLowerCase(Locale.ROOT), histogram.snapshot());
+                }
+            }
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("calls", calls.get());
+            snapshot.put("errors", errors.get());
+            snapshot.put("phases", phases);
+            return snapshot;
+        }
+    }
+
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            // Bucket i holds the values below 2^(i+1) microseconds
+            int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, micros)));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+            long currentMax = max.get();
+            while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+                currentMax = max.get();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            long total = count.get();
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("count", total);
+            snapshot.put("mean", toMillis(total > 0 ? sum.get() / total : 0));
+            snapshot.put("p50", toMillis(percentile(total, 0.5)));
+            snapshot.put("p99", toMillis(percentile(total, 0.99)));
+            snapshot.put("max", toMillis(max.get()));
+            return snapshot;
+        }
+
+        private long percentile(long total, double quantile) {
+            long rank = (long) Math.ceil(total * quantile);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += buckets.get(i);
+                if (cumulative >= rank) {
+                    return Math.min(1L << (i + 1), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static double toMillis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+
+}
@@ -12,8 +12,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import androidx.core.app.NotificationManagerCompat;
-
 public class FRANotificationActionReceiver extends BroadcastReceiver {
 
     private static final String TAG = FRANotificationActionReceiver.class.getSimpleName();
@@ -32,35 +30,53 @@ public class FRANotificationActionReceiver extends BroadcastReceiver {
         String notificationId = intent.getStringExtra(MESSAGE_ID_STRING_EXTRA);
         PushNotification pushNotification = fraClient.getNotification(notificationId);
 
-        int messageCount = intent.getIntExtra(MESSAGE_COUNT_STRING_EXTRA, 0);
-        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+        int messageCount = intent.getIntExtra(MESSAGE_COUNT_STRING_EXTRA, -1);
+        Context applicationContext = context.getApplicationContext();
 
+        // Responses which fail because of the network are sent again by the outbox
+        FRAPushOutbox pushOutbox = FRAPushOutbox.getInstance(applicationContext);
         final String action = intent.getAction();
         if (ACCEPT_ACTION.equals(action)) {
-            pushNotification.accept(new FRAListener<Void>() {
+            pushOutbox.submit(pushNotification, true, null, new FRAPushOutbox.Listener() {
                 @Override
                 public void onSuccess(Void unused) {
                     Log.d(TAG, "Notification successfully approved via system notification action.");
-                    notificationManager.cancel(messageCount);
+                    fraClient.flushStorage();
+                    FRAMessagingUtil.cancelSystemNotification(applicationContext,
+                            notificationId, messageCount);
                 }
 
                 @Override
                 public void onException(Exception e) {
                     Log.e(TAG, "Error approving notification via system notification action.", e);
                 }
+
+                @Override
+                public void onQueued(Exception e) {
+                    Log.w(TAG, "Error approving notification via system notification action, "
+                            + "queued to be sent again.", e);
+                }
             });
         } else if (REJECT_ACTION.equals(action)) {
-            pushNotification.deny(new FRAListener<Void>() {
+            pushOutbox.submit(pushNotification, false, null, new FRAPushOutbox.Listener() {
                 @Override
                 public void onSuccess(Void unused) {
                     Log.d(TAG, "Notification successfully rejected via system notification action.");
-                    notificationManager.cancel(messageCount);
+                    fraClient.flushStorage();
+                    FRAMessagingUtil.cancelSystemNotification(applicationContext,
+                            notificationId, messageCount);
                 }
 
                 @Override
                 public void onException(Exception e) {
                     Log.e(TAG, "Error rejecting notification via system notification action.", e);
                 }
+
+                @Override
+                public void onQueued(Exception e) {
+                    Log.w(TAG, "Error rejecting notification via system notification action, "
+                            + "queued to be sent again.", e);
+                }
             });
         } else {
             throw new IllegalArgumentException("Unsupported action: " + action);
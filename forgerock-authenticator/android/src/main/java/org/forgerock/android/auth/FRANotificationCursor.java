@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Position of a {@link PushNotification} in the time-ordered indexes of the
+ * {@link FRAStorageClient}. Notifications are ordered by time, latest first, then by id. The
+ * timeline is ordered by time added, the pending notifications by time expired.
+ */
+class FRANotificationCursor implements Comparable<FRANotificationCursor> {
+
+    private final long time;
+    private final String id;
+
+    FRANotificationCursor(long time, @NonNull String id) {
+        this.time = time;
+        this.id = id;
+    }
+
+    /**
+     * Get the position of a notification.
+     * @param pushNotification the notification.
+     * @return the cursor pointing to the notification.
+     */
+    static FRANotificationCursor of(@NonNull PushNotification pushNotification) {
+        long timeAdded = pushNotification.getTimeAdded() != null
+                ? pushNotification.getTimeAdded().getTimeInMillis() : 0;
+        return new FRANotificationCursor(timeAdded, pushNotification.getId());
+    }
+
+    /**
+     * Get the position of a notification ordered by time expired.
+     * @param pushNotification the notification.
+     * @return the cursor, holding the time expired.
+     */
+    static FRANotificationCursor expiryOf(@NonNull PushNotification pushNotification) {
+        long timeExpired = pushNotification.getTimeExpired() != null
+                ? pushNotification.getTimeExpired().getTimeInMillis() : Long.MAX_VALUE;
+        return new FRANotificationCursor(timeExpired, pushNotification.getId());
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    @Override
+    public int compareTo(@NonNull FRANotificationCursor other) {
+        int result = Long.compare(other.time, this.time);
+        return result != 0 ? result : this.id.compareTo(other.id);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FRANotificationCursor)) {
+            return false;
+        }
+        return compareTo((FRANotificationCursor) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.valueOf(time).hashCode() + id.hashCode();
+    }
+
+}
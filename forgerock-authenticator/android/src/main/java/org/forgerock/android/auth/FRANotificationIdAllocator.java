@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Map;
+
+/**
+ * Allocates the ids of the system notifications, and remembers which system notification was
+ * posted for each {@link PushNotification}.
+ * <p>
+ * Ids are allocated from blocks reserved in a SharedPreferences file, so they are unique across
+ * process restarts and a new notification never replaces one still visible from a previous
+ * process. The end of the current block is only written once per block, which is also when the
+ * mappings of old notifications are dropped. The mapping of each notification is written with
+ * {@link SharedPreferences.Editor#apply()} when its id is allocated, so the notification can still
+ * be cancelled from a later process, such as when the user acts on it.
+ */
+class FRANotificationIdAllocator {
+
+    private static final String PREFERENCES_NAME = "org.forgerock.authenticator.NOTIFICATION_IDS";
+    private static final String RESERVED_KEY = "reserved";
+    private static final String MAPPING_PREFIX = "notification:";
+    private static final int BLOCK_SIZE = 100;
+    private static final int MAPPING_MAX_SIZE = 100;
+    //Ids below this value are reserved for fixed notifications, such as the group summary
+    static final int FIRST_ID = 1;
+
+    private static FRANotificationIdAllocator INSTANCE = null;
+
+    private final SharedPreferences preferences;
+    private int nextId;
+    private int reservedId;
+
+    private FRANotificationIdAllocator(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        // Skip the rest of the block reserved by the previous process
+        this.nextId = Math.max(FIRST_ID, preferences.getInt(RESERVED_KEY, FIRST_ID));
+        this.reservedId = this.nextId;
+    }
+
+    static synchronized FRANotificationIdAllocator getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new FRANotificationIdAllocator(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Allocate the id of the system notification posted for a push notification. The id is also
+     * used as request code of the notification PendingIntents.
+     * @param notificationId the PushNotification unique ID.
+     * @return the system notification id.
+     */
+    synchronized int allocate(String notificationId) {
+        if (nextId < FIRST_ID) {
+            // Wrapped around
+            nextId = FIRST_ID;
+            reservedId = FIRST_ID;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        if (nextId >= reservedId) {
+            reservedId = nextId + BLOCK_SIZE;
+            editor.putInt(RESERVED_KEY, reservedId);
+            pruneMappings(editor);
+        }
+        int id = nextId++;
+
+        if (notificationId != null) {
+            editor.putInt(MAPPING_PREFIX + notificationId, id);
+        }
+        editor.apply();
+        return id;
+    }
+
+    /**
+     * Get the id of the system notification posted for a push notification.
+     * @param notificationId the PushNotification unique ID.
+     * @return the system notification id, or {@code -1} if none was posted.
+     */
+    synchronized int get(String notificationId) {
+        return preferences.getInt(MAPPING_PREFIX + notificationId, -1);
+    }
+
+    /**
+     * Forget the system notification posted for a push notification, once it is cancelled.
+     * @param notificationId the PushNotification unique ID.
+     * @return the system notification id, or {@code -1} if none was posted.
+     */
+    synchronized int remove(String notificationId) {
+        int id = get(notificationId);
+        if (id != -1) {
+            preferences.edit().remove(MAPPING_PREFIX + notificationId).apply();
+        }
+        return id;
+    }
+
+    /**
+     * Drop the mappings of the oldest notifications, which were most likely dismissed by the user.
+     */
+    private void pruneMappings(SharedPreferences.Editor editor) {
+        int threshold = nextId - MAPPING_MAX_SIZE;
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (entry.getKey().startsWith(MAPPING_PREFIX) && entry.getValue() instanceof Integer
+                    && (Integer) entry.getValue() < threshold) {
+                editor.remove(entry.getKey());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+/**
+ * Page of {@link PushNotification} to retrieve from the {@link FRAStorageClient}, with optional
+ * filters. Results are ordered by time added, newest first.
+ * <p>
+ * To page through the history, pass the last notification of the previous page as
+ * {@link #setOlderThan(FRANotificationCursor)}. To fetch only the notifications received since
+ * the last query, pass the newest notification known as
+ * {@link #setNewerThan(FRANotificationCursor)}: the page then starts right after it.
+ */
+class FRANotificationQuery {
+
+    private FRANotificationCursor olderThan;
+    private FRANotificationCursor newerThan;
+    private int limit;
+    private String mechanismUID;
+    private boolean pendingOnly;
+    private String pushType;
+
+    FRANotificationQuery setOlderThan(FRANotificationCursor olderThan) {
+        this.olderThan = olderThan;
+        return this;
+    }
+
+    FRANotificationQuery setNewerThan(FRANotificationCursor newerThan) {
+        this.newerThan = newerThan;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of notifications to return, {@code 0} means no limit.
+     * @param limit the page size.
+     * @return this query.
+     */
+    FRANotificationQuery setLimit(int limit) {
+        this.limit = Math.max(0, limit);
+        return this;
+    }
+
+    FRANotificationQuery setMechanismUID(String mechanismUID) {
+        this.mechanismUID = mechanismUID;
+        return this;
+    }
+
+    /**
+     * Only return the notifications which are pending and not expired.
+     * @param pendingOnly whether to filter the notifications which were already handled.
+     * @return this query.
+     */
+    FRANotificationQuery setPendingOnly(boolean pendingOnly) {
+        this.pendingOnly = pendingOnly;
+        return this;
+    }
+
+    /**
+     * Only return the notifications of the given {@link PushType}, case insensitive.
+     * @param pushType the push type name, or {@code null} for all types.
+     * @return this query.
+     */
+    FRANotificationQuery setPushType(String pushType) {
+        this.pushType = pushType;
+        return this;
+    }
+
+    FRANotificationCursor getOlderThan() {
+        return olderThan;
+    }
+
+    FRANotificationCursor getNewerThan() {
+        return newerThan;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Whether no notification can be both older than {@link #getOlderThan()} and newer than
+     * {@link #getNewerThan()}, in which case the page is empty.
+     * @return {@code true} if the cursors do not delimit any notification.
+     */
+    boolean isEmptyRange() {
+        // Cursors are ordered newest first
+        return olderThan != null && newerThan != null && olderThan.compareTo(newerThan) >= 0;
+    }
+
+    /**
+     * Whether the notification matches the filters of this query.
+     * @param pushNotification the notification to check.
+     * @return {@code true} if the notification must be returned.
+     */
+    boolean matches(PushNotification pushNotification) {
+        if (mechanismUID != null && !mechanismUID.equals(pushNotification.getMechanismUID())) {
+            return false;
+        }
+        if (pendingOnly && (!pushNotification.isPending() || pushNotification.isExpired())) {
+            return false;
+        }
+        return pushType == null || (pushNotification.getPushType() != null
+                && pushType.equalsIgnoreCase(pushNotification.getPushType().name()));
+    }
+
+}
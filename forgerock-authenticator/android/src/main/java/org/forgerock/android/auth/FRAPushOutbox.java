@@ -0,0 +1,593 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Durable outbox of the responses to Push Notifications. A response is persisted before it is
+ * sent, and removed once it is delivered. Responses which fail with a network or server error are
+ * sent again with an exponential backoff, when the process is started again and as soon as the
+ * network is available again. The network is only monitored while responses are queued.
+ * <p>
+ * Responses are deduplicated by notification id: submitting a response for a notification which
+ * already has one queued for retry replaces it, and a notification is never sent twice at the same
+ * time. While a response is being sent, submitting the same response joins the attempt, and
+ * submitting a different one fails. Responses which require user presence, such as biometric
+ * approvals, cannot be replayed and must not be submitted.
+ * <p>
+ * The {@link Listener} of a submit is notified once: with the result of the first attempt, or
+ * with {@link Listener#onQueued(Exception)} if the attempt failed and the response is sent again
+ * later.
+ */
+class FRAPushOutbox {
+
+    private static final String TAG = FRAPushOutbox.class.getSimpleName();
+
+    //Alias to store keys
+    private static final String FORGEROCK_SHARED_PREFERENCES_KEYS = "com.forgerock.authenticator.KEYS";
+    //Settings to store the pending responses
+    static final String FORGEROCK_SHARED_PREFERENCES_DATA_OUTBOX = "com.forgerock.authenticator.DATA.OUTBOX";
+
+    static final int MAX_ATTEMPTS = 8;
+    static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toMillis(2);
+    static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+
+    //Message of the SDK errors for an unexpected HTTP status code, retried on server errors
+    private static final Pattern SERVER_ERROR = Pattern.compile("returned 5\\d\\d\\b");
+
+    private static FRAPushOutbox INSTANCE = null;
+
+    /**
+     * Listener of a submitted response.
+     */
+    interface Listener extends FRAListener<Void> {
+        /**
+         * The first attempt failed because of the network, and the response is queued to be sent
+         * again. Neither {@link #onSuccess(Object)} nor {@link #onException(Exception)} is called.
+         * @param e the error of the first attempt.
+         */
+        void onQueued(Exception e);
+    }
+
+    /**
+     * Sends the responses to the server.
+     */
+    interface Transport {
+        /**
+         * Get the notification a persisted response answers, when it is sent again.
+         * @param notificationId the PushNotification unique ID.
+         * @return the notification, or {@code null} if it no longer exists.
+         */
+        PushNotification getNotification(String notificationId);
+
+        /**
+         * Send a response.
+         * @param pushNotification the notification to respond to.
+         * @param accept {@code true} to approve the notification, {@code false} to deny it.
+         * @param challengeResponse the response to the challenge, or {@code null}.
+         * @param listener notified with the result, from any thread.
+         */
+        void send(PushNotification pushNotification, boolean accept, String challengeResponse,
+                  FRAListener<Void> listener);
+    }
+
+    /**
+     * Notifies when the network is available again.
+     */
+    interface NetworkMonitor {
+        /**
+         * Start monitoring the network.
+         * @param onAvailable run when the network becomes available.
+         */
+        void register(Runnable onAvailable);
+
+        /**
+         * Stop monitoring the network.
+         */
+        void unregister();
+    }
+
+    /**
+     * Clock and timer of the retries.
+     */
+    interface Scheduler {
+        /**
+         * @return the current time in milliseconds.
+         */
+        long currentTimeMillis();
+
+        /**
+         * Run a task after a delay, on a background thread.
+         * @param task the task to run.
+         * @param delayMillis the delay in milliseconds.
+         */
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    private final SharedPreferences outboxData;
+    private final Transport transport;
+    private final NetworkMonitor networkMonitor;
+    private final Scheduler scheduler;
+    private final Random random = new Random();
+
+    //Guarded by this: notifications being sent, and the listeners of their current attempt
+    private final Set<String> inFlight = new HashSet<>();
+    private final Map<String, List<Listener>> listeners = new HashMap<>();
+    private boolean networkMonitored = false;
+
+    FRAPushOutbox(@NonNull SharedPreferences outboxData, @NonNull Transport transport,
+                  @NonNull NetworkMonitor networkMonitor, @NonNull Scheduler scheduler) {
+        this.outboxData = outboxData;
+        this.transport = transport;
+        this.networkMonitor = networkMonitor;
+        this.scheduler = scheduler;
+    }
+
+    static synchronized FRAPushOutbox getInstance(@NonNull Context context) {
+        if (INSTANCE == null) {
+            Context applicationContext = context.getApplicationContext();
+            INSTANCE = new FRAPushOutbox(
+                    new SecuredSharedPreferences(applicationContext,
+                            FORGEROCK_SHARED_PREFERENCES_DATA_OUTBOX, FORGEROCK_SHARED_PREFERENCES_KEYS),
+                    new SdkTransport(applicationContext),
+                    new ConnectivityNetworkMonitor(applicationContext),
+                    new ExecutorScheduler());
+            INSTANCE.resume();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Send the responses left by a previous process, if any.
+     */
+    void resume() {
+        if (!outboxData.getAll().isEmpty()) {
+            synchronized (this) {
+                monitorNetwork();
+            }
+            scheduleDrain(0);
+        }
+    }
+
+    /**
+     * Persist the response to a Push Notification and send it.
+     * @param pushNotification the notification to respond to.
+     * @param accept {@code true} to approve the notification, {@code false} to deny it.
+     * @param challengeResponse the response to the challenge, or {@code null}.
+     * @param listener notified with the result of the first attempt, or when the response is
+     *                 queued to be sent again.
+     */
+    void submit(@NonNull PushNotification pushNotification, boolean accept,
+                String challengeResponse, @NonNull Listener listener) {
+        Response response = new Response(pushNotification.getId(), accept, challengeResponse);
+        synchronized (this) {
+            if (inFlight.contains(response.notificationId)) {
+                Response current = load(response.notificationId);
+                if (current == null || current.isSameAs(response)) {
+                    // Same response, notified with the result of the attempt in flight
+                    addListener(response.notificationId, listener);
+                    return;
+                }
+                response = null;
+            } else {
+                store(response);
+                addListener(response.notificationId, listener);
+                inFlight.add(response.notificationId);
+            }
+        }
+        if (response != null) {
+            send(pushNotification, response);
+        } else {
+            listener.onException(new IllegalStateException(
+                    "Another response to this notification is being sent."));
+        }
+    }
+
+    /**
+     * Send all the responses due for a new attempt. Responses to notifications which are no
+     * longer pending are dropped. Safe to call from several threads at the same time.
+     */
+    void drain() {
+        long now = scheduler.currentTimeMillis();
+        long nextAttempt = Long.MAX_VALUE;
+
+        for (Map.Entry<String, ?> entry : outboxData.getAll().entrySet()) {
+            Response response = Response.deserialize(entry.getKey(), String.valueOf(entry.getValue()));
+            if (response == null) {
+                remove(entry.getKey());
+                continue;
+            }
+            if (response.nextAttempt > now) {
+                nextAttempt = Math.min(nextAttempt, response.nextAttempt);
+                continue;
+            }
+
+            PushNotification pushNotification = transport.getNotification(response.notificationId);
+            if (pushNotification == null || !pushNotification.isPending() || pushNotification.isExpired()) {
+                Log.d(TAG, "Dropping response to a notification which is no longer pending.");
+                synchronized (this) {
+                    if (!inFlight.contains(response.notificationId)) {
+                        remove(response.notificationId);
+                    }
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                if (inFlight.contains(response.notificationId)) {
+                    continue;
+                }
+                // Another drain or a submit may have sent or replaced it meanwhile
+                response = load(response.notificationId);
+                if (response == null || response.nextAttempt > now) {
+                    continue;
+                }
+                inFlight.add(response.notificationId);
+            }
+            send(pushNotification, response);
+        }
+
+        synchronized (this) {
+            if (nextAttempt != Long.MAX_VALUE) {
+                scheduleDrain(nextAttempt - now);
+            }
+            stopMonitoringIfEmpty();
+        }
+    }
+
+    private void send(final PushNotification pushNotification, final Response response) {
+        final FRAMetrics metrics = FRAMetrics.getInstance();
+        final String method = metrics.getCurrentMethod();
+        final long start = metrics.start();
+        FRAListener<Void> listener = new FRAListener<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                metrics.record(method, FRAMetrics.Phase.NETWORK, start);
+                Logger.debug(TAG, "Push response delivered.");
+                synchronized (FRAPushOutbox.this) {
+                    remove(response.notificationId);
+                    inFlight.remove(response.notificationId);
+                    stopMonitoringIfEmpty();
+                }
+                for (Listener listener : takeListeners(response.notificationId)) {
+                    listener.onSuccess(result);
+                }
+            }
+
+            @Override
+            public void onException(Exception e) {
+                metrics.record(method, FRAMetrics.Phase.NETWORK, start);
+                boolean queued;
+                synchronized (FRAPushOutbox.this) {
+                    response.attempts++;
+                    queued = isRetryable(e) && response.attempts < MAX_ATTEMPTS
+                            && !pushNotification.isExpired();
+                    if (queued) {
+                        long backoff = getBackoff(response.attempts);
+                        response.nextAttempt = scheduler.currentTimeMillis() + backoff;
+                        store(response);
+                        monitorNetwork();
+                        scheduleDrain(backoff);
+                        Log.w(TAG, "Error delivering push response, retrying in " + backoff + "ms.");
+                    } else {
+                        Log.e(TAG, "Error delivering push response, giving up.", e);
+                        remove(response.notificationId);
+                    }
+                    inFlight.remove(response.notificationId);
+                    stopMonitoringIfEmpty();
+                }
+                for (Listener listener : takeListeners(response.notificationId)) {
+                    if (queued) {
+                        listener.onQueued(e);
+                    } else {
+                        listener.onException(e);
+                    }
+                }
+            }
+        };
+
+        transport.send(pushNotification, response.accept, response.challengeResponse, listener);
+    }
+
+    /**
+     * Whether the response failed because of the network or of the server, as opposed to being
+     * rejected. The SDK reports the network errors with their {@link IOException} as cause, and
+     * the unexpected HTTP status codes with their code in the message.
+     */
+    static boolean isRetryable(Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause.getMessage() != null && SERVER_ERROR.matcher(cause.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the delay before the next attempt, without the random spread of up to a fifth of it.
+     * @param attempts the number of failed attempts.
+     * @return the delay in milliseconds.
+     */
+    static long getBaseBackoff(int attempts) {
+        return Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(attempts - 1, 20));
+    }
+
+    private long getBackoff(int attempts) {
+        long backoff = getBaseBackoff(attempts);
+        // Spread the retries of the responses which failed together
+        return backoff + (long) (random.nextDouble() * backoff / 5);
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, Math.max(0, delayMillis));
+    }
+
+    /**
+     * Send the queued responses now, once the network is back.
+     */
+    void onNetworkAvailable() {
+        if (outboxData.getAll().isEmpty()) {
+            return;
+        }
+        Logger.debug(TAG, "Network available, sending pending push responses.");
+        resetBackoff();
+        scheduleDrain(0);
+    }
+
+    /**
+     * Start monitoring the network, if not already. Must be called while holding the lock.
+     */
+    private void monitorNetwork() {
+        if (networkMonitored) {
+            return;
+        }
+        networkMonitored = true;
+        networkMonitor.register(new Runnable() {
+            @Override
+            public void run() {
+                onNetworkAvailable();
+            }
+        });
+    }
+
+    /**
+     * Stop monitoring the network once no response is queued. Must be called while holding the
+     * lock.
+     */
+    private void stopMonitoringIfEmpty() {
+        if (networkMonitored && inFlight.isEmpty() && outboxData.getAll().isEmpty()) {
+            networkMonitored = false;
+            networkMonitor.unregister();
+        }
+    }
+
+    /**
+     * Make all the pending responses due now.
+     */
+    private synchronized void resetBackoff() {
+        for (Map.Entry<String, ?> entry : outboxData.getAll().entrySet()) {
+            Response response = Response.deserialize(entry.getKey(), String.valueOf(entry.getValue()));
+            if (response != null && response.nextAttempt > 0) {
+                response.nextAttempt = 0;
+                store(response);
+            }
+        }
+    }
+
+    private synchronized void addListener(String notificationId, Listener listener) {
+        List<Listener> notificationListeners = listeners.get(notificationId);
+        if (notificationListeners == null) {
+            notificationListeners = new ArrayList<>();
+            listeners.put(notificationId, notificationListeners);
+        }
+        notificationListeners.add(listener);
+    }
+
+    private synchronized List<Listener> takeListeners(String notificationId) {
+        List<Listener> notificationListeners = listeners.remove(notificationId);
+        return notificationListeners != null
+                ? notificationListeners : new ArrayList<Listener>();
+    }
+
+    private Response load(String notificationId) {
+        String data = outboxData.getString(notificationId, null);
+        return data != null ? Response.deserialize(notificationId, data) : null;
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private void store(Response response) {
+        outboxData.edit().putString(response.notificationId, response.serialize()).commit();
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private void remove(String notificationId) {
+        outboxData.edit().remove(notificationId).commit();
+    }
+
+    /**
+     * Response to a Push Notification waiting to be delivered.
+     */
+    private static class Response {
+        final String notificationId;
+        final boolean accept;
+        final String challengeResponse;
+        int attempts;
+        long nextAttempt;
+
+        Response(String notificationId, boolean accept, String challengeResponse) {
+            this.notificationId = notificationId;
+            this.accept = accept;
+            this.challengeResponse = challengeResponse;
+        }
+
+        /**
+         * Whether both responses send the same answer to the notification.
+         */
+        boolean isSameAs(Response other) {
+            return accept == other.accept && (challengeResponse == null
+                    ? other.challengeResponse == null : challengeResponse.equals(other.challengeResponse));
+        }
+
+        String serialize() {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("accept", accept);
+                json.put("challengeResponse", challengeResponse);
+                json.put("attempts", attempts);
+                json.put("nextAttempt", nextAttempt);
+                return json.toString();
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static Response deserialize(String notificationId, String data) {
+            try {
+                JSONObject json = new JSONObject(data);
+                Response response = new Response(notificationId, json.getBoolean("accept"),
+                        json.isNull("challengeResponse") ? null : json.getString("challengeResponse"));
+                response.attempts = json.optInt("attempts");
+                response.nextAttempt = json.optLong("nextAttempt");
+                return response;
+            } catch (JSONException e) {
+                Log.e(TAG, "Invalid push response in the outbox.", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Sends the responses with the SDK, starting it in the background to send the responses left
+     * by a previous process.
+     */
+    private static class SdkTransport implements Transport {
+        private final Context context;
+
+        SdkTransport(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public PushNotification getNotification(String notificationId) {
+            return FRAClientWrapper.getInstanceInBackground(context).getNotification(notificationId);
+        }
+
+        @Override
+        public void send(PushNotification pushNotification, boolean accept,
+                         String challengeResponse, FRAListener<Void> listener) {
+            if (!accept) {
+                pushNotification.deny(listener);
+            } else if (challengeResponse != null) {
+                pushNotification.accept(challengeResponse, listener);
+            } else {
+                pushNotification.accept(listener);
+            }
+        }
+    }
+
+    /**
+     * Monitors the network with the {@link ConnectivityManager}.
+     */
+    private static class ConnectivityNetworkMonitor implements NetworkMonitor {
+        private final ConnectivityManager connectivityManager;
+        private ConnectivityManager.NetworkCallback callback;
+
+        ConnectivityNetworkMonitor(Context context) {
+            this.connectivityManager =
+                    (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        }
+
+        @Override
+        public synchronized void register(final Runnable onAvailable) {
+            if (connectivityManager == null || callback != null) {
+                return;
+            }
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            callback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull Network network) {
+                    onAvailable.run();
+                }
+            };
+            connectivityManager.registerNetworkCallback(request, callback);
+        }
+
+        @Override
+        public synchronized void unregister() {
+            if (connectivityManager == null || callback == null) {
+                return;
+            }
+            connectivityManager.unregisterNetworkCallback(callback);
+            callback = null;
+        }
+    }
+
+    /**
+     * Runs the retries on a dedicated daemon thread.
+     */
+    private static class ExecutorScheduler implements Scheduler {
+        private final ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "FRAPushOutbox");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+}
@@ -7,15 +7,11 @@
 
 package org.forgerock.android.auth;
 
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
-import org.json.JSONObject;
-
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.flutter.plugin.common.MethodChannel;
 
@@ -23,27 +19,23 @@ class FRARetrieveAccountsTask implements Runnable {
     private static final String TAG = FRARetrieveAccountsTask.class.getSimpleName();
 
     private final FRAClient fraClient;
+    private final FRAChannelCodec channelCodec;
     private final MethodChannel.Result result;
 
-    public FRARetrieveAccountsTask(FRAClient fraClient, MethodChannel.Result result) {
+    public FRARetrieveAccountsTask(FRAClient fraClient, FRAChannelCodec channelCodec,
+                                   MethodChannel.Result result) {
         this.fraClient = fraClient;
+        this.channelCodec = channelCodec;
         this.result = result;
     }
 
     @Override
     public void run() {
         Log.d(TAG, "Start fetching accounts...");
-        List<String> accounts = new ArrayList<>();;
+        List<Map<String, Object>> accounts = new ArrayList<>();
         try {
             for (Account a : fraClient.getAllAccounts()) {
-                List<String> mechanismList = new ArrayList<>();
-                for (Mechanism m : a.getMechanisms()) {
-                    mechanismList.add(m.toJson());
-                }
-                JSONObject account = new JSONObject(a.toJson());
-                account.put("mechanismList", mechanismList);
-                String accountString = account.toString();
-                accounts.add(accountString);
+                accounts.add(channelCodec.toMap(a));
             }
             this.sendSuccess(accounts);
         } catch (Exception e) {
@@ -52,7 +44,7 @@ class FRARetrieveAccountsTask implements Runnable {
     }
 
     public void sendError(final Exception exception) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        FRAClientWrapper.runOnMainThread(new Runnable() {
             @Override
             public void run() {
                 result.error("ACCOUNT_PARSING_EXCEPTION", exception.getLocalizedMessage(), "");
@@ -60,8 +52,8 @@ class FRARetrieveAccountsTask implements Runnable {
         });
     }
 
-    public void sendSuccess(final List<String> accounts) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+    public void sendSuccess(final List<Map<String, Object>> accounts) {
+        FRAClientWrapper.runOnMainThread(new Runnable() {
             @Override
             public void run() {
                 Log.d(TAG, "Finished fetching accounts");
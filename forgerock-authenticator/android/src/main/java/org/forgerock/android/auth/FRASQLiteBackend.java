@@ -0,0 +1,592 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link FRAStorageBackend} which stores one encrypted row per entity in a SQLite database. The
+ * serialized entity is encrypted with {@link FRADatabaseEncryptor}, while the columns used to look
+ * entities up (mechanismUID, issuer and accountName of the mechanisms, messageId) are indexed, so
+ * the lookups only decrypt the matching rows.
+ * <p>
+ * Unlike the SharedPreferences backend, a batch is committed in a single transaction. The first
+ * time the database is used, the data of the SharedPreferences backend is migrated into it and
+ * the SharedPreferences files are cleared. The migration is recorded in the database in the same
+ * transaction as the migrated data, so it is never imported twice. If the migration fails, the
+ * data is left in the SharedPreferences files, which are used instead of the database until the
+ * next start. When the storage is switched back to SharedPreferences, the data is moved back with
+ * {@link #migrateBackIfNeeded(Context)}.
+ */
+class FRASQLiteBackend extends SQLiteOpenHelper implements FRAStorageBackend {
+
+    private static final String TAG = FRASQLiteBackend.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "com.forgerock.authenticator.db";
+    private static final int DATABASE_VERSION = 2;
+    private static final String DATABASE_KEY_ALIAS = "com.forgerock.authenticator.DATABASE";
+
+    private static final String TABLE_ACCOUNT = "account";
+    private static final String TABLE_MECHANISM = "mechanism";
+    private static final String TABLE_NOTIFICATION = "notification";
+    private static final String TABLE_BACKUP = "backup";
+    private static final String TABLE_METADATA = "metadata";
+
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_DATA = "data";
+    private static final String COLUMN_ISSUER = "issuer";
+    private static final String COLUMN_ACCOUNT_NAME = "account_name";
+    private static final String COLUMN_MECHANISM_UID = "mechanism_uid";
+    private static final String COLUMN_MESSAGE_ID = "message_id";
+    private static final String COLUMN_TIME_ADDED = "time_added";
+    private static final String COLUMN_VALUE = "value";
+
+    //Metadata key recording that the SharedPreferences data was imported
+    private static final String MIGRATED_KEY = "migrated_from_shared_preferences";
+
+    private final FRADatabaseEncryptor encryptor;
+    private final FRAStorageBackend preferences;
+    private volatile boolean migrated = false;
+    //The SharedPreferences backend used instead of the database when the migration failed
+    private volatile FRAStorageBackend fallback = null;
+
+    /**
+     * Constructor.
+     *
+     * @param context application context.
+     */
+    FRASQLiteBackend(Context context) {
+        this(context, DATABASE_NAME, new FRADatabaseEncryptor(DATABASE_KEY_ALIAS),
+                new FRASharedPreferencesBackend(context));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param context application context.
+     * @param databaseName the name of the database file.
+     * @param encryptor encrypts the stored rows.
+     * @param preferences the SharedPreferences backend to migrate the data from.
+     */
+    FRASQLiteBackend(Context context, String databaseName, FRADatabaseEncryptor encryptor,
+                     FRAStorageBackend preferences) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        this.encryptor = encryptor;
+        this.preferences = preferences;
+    }
+
+    /**
+     * Get the backend to use when the storage is configured to use the SharedPreferences files.
+     * If a database was used before, its data is moved back into the SharedPreferences files and
+     * the database is deleted. If that is not possible, the switch is refused and the database is
+     * used instead, so the stored data never silently disappears.
+     *
+     * @param context application context.
+     * @return the backend to use.
+     */
+    static FRAStorageBackend migrateBackIfNeeded(Context context) {
+        FRASharedPreferencesBackend preferences = new FRASharedPreferencesBackend(context);
+        if (!context.getDatabasePath(DATABASE_NAME).exists()) {
+            return preferences;
+        }
+
+        FRASQLiteBackend database = new FRASQLiteBackend(context, DATABASE_NAME,
+                new FRADatabaseEncryptor(DATABASE_KEY_ALIAS), preferences);
+        if (!database.migrateBack()) {
+            Log.e(TAG, "Error moving the stored data back to the SharedPreferences files, "
+                    + "using the database instead.");
+            return database;
+        }
+        database.close();
+        if (!context.deleteDatabase(DATABASE_NAME)) {
+            Log.w(TAG, "Error deleting the database, its data was moved back to the SharedPreferences files.");
+        }
+        return preferences;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ACCOUNT + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_DATA + " BLOB NOT NULL)");
+
+        db.execSQL("CREATE TABLE " + TABLE_MECHANISM + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_MECHANISM_UID + " TEXT, "
+                + COLUMN_ISSUER + " TEXT, "
+                + COLUMN_ACCOUNT_NAME + " TEXT, "
+                + COLUMN_DATA + " BLOB NOT NULL)");
+        db.execSQL("CREATE INDEX idx_mechanism_uid ON " + TABLE_MECHANISM
+                + " (" + COLUMN_MECHANISM_UID + ")");
+        db.execSQL("CREATE INDEX idx_mechanism_issuer_account_name ON " + TABLE_MECHANISM
+                + " (" + COLUMN_ISSUER + ", " + COLUMN_ACCOUNT_NAME + ")");
+
+        db.execSQL("CREATE TABLE " + TABLE_NOTIFICATION + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_MECHANISM_UID + " TEXT, "
+                + COLUMN_MESSAGE_ID + " TEXT, "
+                + COLUMN_TIME_ADDED + " INTEGER, "
+                + COLUMN_DATA + " BLOB NOT NULL)");
+        db.execSQL("CREATE INDEX idx_notification_mechanism_uid ON " + TABLE_NOTIFICATION
+                + " (" + COLUMN_MECHANISM_UID + ", " + COLUMN_TIME_ADDED + ")");
+        db.execSQL("CREATE INDEX idx_notification_message_id ON " + TABLE_NOTIFICATION
+                + " (" + COLUMN_MESSAGE_ID + ")");
+
+        db.execSQL("CREATE TABLE " + TABLE_BACKUP + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_DATA + " BLOB NOT NULL)");
+
+        createMetadataTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createMetadataTable(db);
+            // The first version only wrote to the database once the migration was committed
+            if (DatabaseUtils.queryNumEntries(db, TABLE_ACCOUNT) > 0
+                    || DatabaseUtils.queryNumEntries(db, TABLE_MECHANISM) > 0
+                    || DatabaseUtils.queryNumEntries(db, TABLE_NOTIFICATION) > 0
+                    || DatabaseUtils.queryNumEntries(db, TABLE_BACKUP) > 0) {
+                setMigrated(db);
+            }
+        }
+    }
+
+    private static void createMetadataTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_METADATA + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_VALUE + " TEXT)");
+    }
+
+    @Override
+    public Map<String, String> getAll(Table table) {
+        FRAStorageBackend fallback = migrateIfNeeded();
+        if (fallback != null) {
+            return fallback.getAll(table);
+        }
+        return query(table, null, null, null);
+    }
+
+    @Override
+    public String get(Table table, String id) {
+        if (id == null) {
+            return null;
+        }
+        FRAStorageBackend fallback = migrateIfNeeded();
+        if (fallback != null) {
+            return fallback.get(table, id);
+        }
+
+        for (String json : query(table, COLUMN_ID + " = ?", new String[]{id}, null).values()) {
+            return json;
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, String> getMechanismsByAccount(String issuer, String accountName) {
+        FRAStorageBackend fallback = migrateIfNeeded();
+        if (fallback != null) {
+            return fallback.getMechanismsByAccount(issuer, accountName);
+        }
+        if (issuer == null || accountName == null) {
+            return new LinkedHashMap<>();
+        }
+        return query(Table.MECHANISM, COLUMN_ISSUER + " = ? AND " + COLUMN_ACCOUNT_NAME + " = ?",
+                new String[]{issuer, accountName}, null);
+    }
+
+    @Override
+    public Map<String, String> getByMechanismUID(Table table, String mechanismUID) {
+        FRAStorageBackend fallback = migrateIfNeeded();
+        if (fallback != null) {
+            return fallback.getByMechanismUID(table, mechanismUID);
+        }
+        if (table != Table.MECHANISM && table != Table.NOTIFICATION) {
+            throw new IllegalArgumentException("Unsupported table: " + table);
+        }
+        if (mechanismUID == null) {
+            return new LinkedHashMap<>();
+        }
+        return query(table, COLUMN_MECHANISM_UID + " = ?", new String[]{mechanismUID},
+                table == Table.NOTIFICATION ? COLUMN_TIME_ADDED + " DESC" : null);
+    }
+
+    @Override
+    public String getNotificationByMessageId(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        FRAStorageBackend fallback = migrateIfNeeded();
+        if (fallback != null) {
+            return fallback.getNotificationByMessageId(messageId);
+        }
+
+        for (String json : query(Table.NOTIFICATION, COLUMN_MESSAGE_ID + " = ?",
+                new String[]{messageId}, null).values()) {
+            return json;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean commit(FRAStorageBatch batch) {
+        FRAStorageBackend fallback = migrateIfNeeded();
+        if (fallback != null) {
+            return fallback.commit(batch);
+        }
+        return commitInTransaction(batch, false);
+    }
+
+    @Override
+    public boolean clear(Table... tables) {
+        FRAStorageBackend fallback = migrateIfNeeded();
+        if (fallback != null) {
+            return fallback.clear(tables);
+        }
+
+        SQLiteDatabase db;
+        try {
+            db = getWritableDatabase();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error opening the database.", e);
+            return false;
+        }
+        db.beginTransaction();
+        try {
+            for (Table table : tables) {
+                db.delete(getTableName(table), null, null);
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error clearing stored data.", e);
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        FRAStorageBackend fallback = migrateIfNeeded();
+        if (fallback != null) {
+            return fallback.isEmpty();
+        }
+
+        try {
+            SQLiteDatabase db = getReadableDatabase();
+            return DatabaseUtils.queryNumEntries(db, TABLE_ACCOUNT) == 0 &&
+                    DatabaseUtils.queryNumEntries(db, TABLE_MECHANISM) == 0 &&
+                    DatabaseUtils.queryNumEntries(db, TABLE_NOTIFICATION) == 0;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error reading stored data.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Read and decrypt the rows of a table matching a selection.
+     * @return the serialized entries by id, in the given order.
+     */
+    private Map<String, String> query(Table table, String selection, String[] selectionArgs,
+                                      String orderBy) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (Cursor cursor = getReadableDatabase().query(getTableName(table),
+                new String[]{COLUMN_ID, COLUMN_DATA}, selection, selectionArgs, null, null, orderBy)) {
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(0);
+                try {
+                    entries.put(id, encryptor.decrypt(cursor.getBlob(1)));
+                } catch (GeneralSecurityException e) {
+                    Log.e(TAG, "Error decrypting stored entry: " + id, e);
+                }
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Error reading table: " + table, e);
+        }
+        return entries;
+    }
+
+    /**
+     * Commit the batch in a single transaction.
+     * @param batch the changes to write.
+     * @param migration whether the batch is the migrated data, recorded in the same transaction.
+     */
+    private boolean commitInTransaction(FRAStorageBatch batch, boolean migration) {
+        SQLiteDatabase db;
+        try {
+            db = getWritableDatabase();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error opening the database.", e);
+            return false;
+        }
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, Account> entry : batch.accounts.entrySet()) {
+                Account account = entry.getValue();
+                if (account == null) {
+                    delete(db, TABLE_ACCOUNT, entry.getKey());
+                } else {
+                    replace(db, TABLE_ACCOUNT, entry.getKey(), account.serialize(), new ContentValues());
+                }
+            }
+            for (Map.Entry<String, Mechanism> entry : batch.mechanisms.entrySet()) {
+                Mechanism mechanism = entry.getValue();
+                if (mechanism == null) {
+                    delete(db, TABLE_MECHANISM, entry.getKey());
+                } else {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_MECHANISM_UID, mechanism.getMechanismUID());
+                    values.put(COLUMN_ISSUER, mechanism.getIssuer());
+                    values.put(COLUMN_ACCOUNT_NAME, mechanism.getAccountName());
+                    replace(db, TABLE_MECHANISM, entry.getKey(), mechanism.serialize(), values);
+                }
+            }
+            for (Map.Entry<String, PushNotification> entry : batch.notifications.entrySet()) {
+                PushNotification notification = entry.getValue();
+                if (notification == null) {
+                    delete(db, TABLE_NOTIFICATION, entry.getKey());
+                } else {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_MECHANISM_UID, notification.getMechanismUID());
+                    values.put(COLUMN_MESSAGE_ID, notification.getMessageId());
+                    if (notification.getTimeAdded() != null) {
+                        values.put(COLUMN_TIME_ADDED, notification.getTimeAdded().getTimeInMillis());
+                    }
+                    replace(db, TABLE_NOTIFICATION, entry.getKey(), notification.serialize(), values);
+                }
+            }
+            for (Map.Entry<String, String> entry : batch.backups.entrySet()) {
+                replace(db, TABLE_BACKUP, entry.getKey(), entry.getValue(), new ContentValues());
+            }
+            if (migration) {
+                setMigrated(db);
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } catch (SQLException | GeneralSecurityException e) {
+            Log.e(TAG, "Error committing stored data.", e);
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void replace(SQLiteDatabase db, String table, String id, String data,
+                         ContentValues values) throws GeneralSecurityException {
+        values.put(COLUMN_ID, id);
+        values.put(COLUMN_DATA, encryptor.encrypt(data));
+        db.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private void delete(SQLiteDatabase db, String table, String id) {
+        db.delete(table, COLUMN_ID + " = ?", new String[]{id});
+    }
+
+    /**
+     * Move the data of the SharedPreferences backend into the database, once. The data is
+     * committed in one transaction which also records the migration, before the SharedPreferences
+     * files are cleared. An interrupted migration is run again on next start, while a migration
+     * which committed is never imported again, so it cannot overwrite newer rows. If an entry
+     * cannot be read or the database cannot be written, the SharedPreferences files are kept
+     * untouched.
+     * @return the SharedPreferences backend to use instead of the database if the migration
+     * failed, {@code null} otherwise.
+     */
+    private FRAStorageBackend migrateIfNeeded() {
+        if (migrated) {
+            return fallback;
+        }
+
+        synchronized (this) {
+            if (migrated) {
+                return fallback;
+            }
+
+            if (!migrate()) {
+                Log.e(TAG, "Error migrating stored data to the database, using the SharedPreferences files.");
+                fallback = preferences;
+            }
+            migrated = true;
+            return fallback;
+        }
+    }
+
+    private boolean migrate() {
+        try {
+            if (isMigrated(getWritableDatabase())) {
+                if (!preferences.isEmpty() || !preferences.getAll(Table.BACKUP).isEmpty()) {
+                    // The previous migration committed, but the files were not cleared
+                    Log.w(TAG, "Clearing the SharedPreferences files of a previous migration.");
+                    preferences.clear(Table.values());
+                }
+                return true;
+            }
+
+            Log.d(TAG, "Migrating stored data to the database.");
+            FRAStorageBatch batch = new FRAStorageBatch();
+            for (Map.Entry<String, String> entry : preferences.getAll(Table.ACCOUNT).entrySet()) {
+                Account account = Account.deserialize(entry.getValue());
+                if (account == null) {
+                    Log.e(TAG, "Error reading stored account: " + entry.getKey());
+                    return false;
+                }
+                batch.setAccount(account);
+            }
+            for (Map.Entry<String, String> entry : preferences.getAll(Table.MECHANISM).entrySet()) {
+                Mechanism mechanism = Mechanism.deserialize(entry.getValue());
+                if (mechanism == null) {
+                    Log.e(TAG, "Error reading stored mechanism: " + entry.getKey());
+                    return false;
+                }
+                batch.setMechanism(mechanism);
+            }
+            for (Map.Entry<String, String> entry : preferences.getAll(Table.NOTIFICATION).entrySet()) {
+                PushNotification notification = PushNotification.deserialize(entry.getValue());
+                if (notification == null) {
+                    Log.e(TAG, "Error reading stored notification: " + entry.getKey());
+                    return false;
+                }
+                batch.setNotification(notification);
+            }
+            for (Map.Entry<String, String> entry : preferences.getAll(Table.BACKUP).entrySet()) {
+                batch.setBackup(entry.getKey(), entry.getValue());
+            }
+
+            if (!commitInTransaction(batch, true)) {
+                return false;
+            }
+            if (!batch.isEmpty()) {
+                if (!preferences.clear(Table.values())) {
+                    Log.w(TAG, "Error clearing the SharedPreferences files, clearing them on next start.");
+                }
+                Log.d(TAG, "Stored data migrated to the database.");
+            }
+            return true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error opening the database.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Move the data of the database into the SharedPreferences backend. Nothing is written unless
+     * every row can be read, and the SharedPreferences files are empty.
+     * @return {@code true} if the database data is now in the SharedPreferences files, or if the
+     * database is empty.
+     */
+    synchronized boolean migrateBack() {
+        try {
+            SQLiteDatabase db = getReadableDatabase();
+            Map<String, String> accounts = queryAll(db, Table.ACCOUNT);
+            Map<String, String> mechanisms = queryAll(db, Table.MECHANISM);
+            Map<String, String> notifications = queryAll(db, Table.NOTIFICATION);
+            Map<String, String> backups = queryAll(db, Table.BACKUP);
+            if (accounts == null || mechanisms == null || notifications == null || backups == null) {
+                return false;
+            }
+            if (accounts.isEmpty() && mechanisms.isEmpty() && notifications.isEmpty() && backups.isEmpty()) {
+                return true;
+            }
+            if (!preferences.isEmpty() || !preferences.getAll(Table.BACKUP).isEmpty()) {
+                Log.e(TAG, "Both the database and the SharedPreferences files contain data.");
+                return false;
+            }
+
+            Log.d(TAG, "Moving stored data back to the SharedPreferences files.");
+            FRAStorageBatch batch = new FRAStorageBatch();
+            for (String json : accounts.values()) {
+                Account account = Account.deserialize(json);
+                if (account == null) {
+                    return false;
+                }
+                batch.setAccount(account);
+            }
+            for (String json : mechanisms.values()) {
+                Mechanism mechanism = Mechanism.deserialize(json);
+                if (mechanism == null) {
+                    return false;
+                }
+                batch.setMechanism(mechanism);
+            }
+            for (String json : notifications.values()) {
+                PushNotification notification = PushNotification.deserialize(json);
+                if (notification == null) {
+                    return false;
+                }
+                batch.setNotification(notification);
+            }
+            for (Map.Entry<String, String> entry : backups.entrySet()) {
+                batch.setBackup(entry.getKey(), entry.getValue());
+            }
+
+            if (!preferences.commit(batch)) {
+                // Do not leave a partial copy, it would be imported over the database next time
+                preferences.clear(Table.values());
+                return false;
+            }
+            return true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error opening the database.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Read and decrypt all the rows of a table.
+     * @return the serialized entries by id, or {@code null} if a row could not be read.
+     */
+    private Map<String, String> queryAll(SQLiteDatabase db, Table table) {
+        Map<String, String> entries = query(table, null, null, null);
+        if (entries.size() != DatabaseUtils.queryNumEntries(db, getTableName(table))) {
+            return null;
+        }
+        return entries;
+    }
+
+    private static boolean isMigrated(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, TABLE_METADATA, COLUMN_ID + " = ?",
+                new String[]{MIGRATED_KEY}) > 0;
+    }
+
+    private static void setMigrated(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, MIGRATED_KEY);
+        values.put(COLUMN_VALUE, String.valueOf(System.currentTimeMillis()));
+        db.insertWithOnConflict(TABLE_METADATA, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static String getTableName(Table table) {
+        switch (table) {
+            case ACCOUNT:
+                return TABLE_ACCOUNT;
+            case MECHANISM:
+                return TABLE_MECHANISM;
+            case NOTIFICATION:
+                return TABLE_NOTIFICATION;
+            case BACKUP:
+                return TABLE_BACKUP;
+            default:
+                throw new IllegalArgumentException("Unsupported table: " + table);
+        }
+    }
+
+}
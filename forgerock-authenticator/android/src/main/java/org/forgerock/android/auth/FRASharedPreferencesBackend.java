@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link FRAStorageBackend} which uses SecureSharedPreferences from forgerock-core SDK, with one
+ * encrypted file per table. The files cannot be queried, so the lookups by indexed field
+ * deserialize and scan the whole table.
+ */
+class FRASharedPreferencesBackend implements FRAStorageBackend {
+
+    //Alias to store keys
+    private static final String FORGEROCK_SHARED_PREFERENCES_KEYS = "com.forgerock.authenticator.KEYS";
+
+    //Settings to store the data
+    private static final String FORGEROCK_SHARED_PREFERENCES_DATA_ACCOUNT = "com.forgerock.authenticator.DATA.ACCOUNT";
+    private static final String FORGEROCK_SHARED_PREFERENCES_DATA_MECHANISM = "com.forgerock.authenticator.DATA.MECHANISM";
+    private static final String FORGEROCK_SHARED_PREFERENCES_DATA_NOTIFICATIONS = "com.forgerock.authenticator.DATA.NOTIFICATIONS";
+    private static final String FORGEROCK_SHARED_PREFERENCES_DATA_BACKUP = "com.forgerock.authenticator.DATA.BACKUP";
+
+    //The SharedPreferences to store the data
+    private final SharedPreferences accountData;
+    private final SharedPreferences mechanismData;
+    private final SharedPreferences notificationData;
+    private final SharedPreferences backupData;
+
+    /**
+     * Constructor.
+     *
+     * @param context application context.
+     */
+    FRASharedPreferencesBackend(Context context) {
+        this.accountData = new SecuredSharedPreferences(context,
+                FORGEROCK_SHARED_PREFERENCES_DATA_ACCOUNT, FORGEROCK_SHARED_PREFERENCES_KEYS);
+        this.mechanismData = new SecuredSharedPreferences(context,
+                FORGEROCK_SHARED_PREFERENCES_DATA_MECHANISM, FORGEROCK_SHARED_PREFERENCES_KEYS);
+        this.notificationData = new SecuredSharedPreferences(context,
+                FORGEROCK_SHARED_PREFERENCES_DATA_NOTIFICATIONS, FORGEROCK_SHARED_PREFERENCES_KEYS);
+        this.backupData = new SecuredSharedPreferences(context,
+                FORGEROCK_SHARED_PREFERENCES_DATA_BACKUP, FORGEROCK_SHARED_PREFERENCES_KEYS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param accountData the SharedPreferences to store the accounts.
+     * @param mechanismData the SharedPreferences to store the mechanisms.
+     * @param notificationData the SharedPreferences to store the notifications.
+     * @param backupData the SharedPreferences to store the backups.
+     */
+    FRASharedPreferencesBackend(SharedPreferences accountData, SharedPreferences mechanismData,
+                                SharedPreferences notificationData, SharedPreferences backupData) {
+        this.accountData = accountData;
+        this.mechanismData = mechanismData;
+        this.notificationData = notificationData;
+        this.backupData = backupData;
+    }
+
+    @Override
+    public Map<String, String> getAll(Table table) {
+        Map<String, String> entries = new HashMap<>();
+        for(Map.Entry<String, ?> entry : getData(table).getAll().entrySet()) {
+            if(entry.getValue() != null) {
+                entries.put(entry.getKey(), entry.getValue().toString());
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public String get(Table table, String id) {
+        return getData(table).getString(id, null);
+    }
+
+    @Override
+    public Map<String, String> getMechanismsByAccount(String issuer, String accountName) {
+        Map<String, String> entries = new HashMap<>();
+        for(Map.Entry<String, String> entry : getAll(Table.MECHANISM).entrySet()) {
+            Mechanism mechanism = Mechanism.deserialize(entry.getValue());
+            if(mechanism != null && equals(issuer, mechanism.getIssuer())
+                    && equals(accountName, mechanism.getAccountName())) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public Map<String, String> getByMechanismUID(Table table, String mechanismUID) {
+        Map<String, String> entries = new HashMap<>();
+        for(Map.Entry<String, String> entry : getAll(table).entrySet()) {
+            String entryMechanismUID;
+            if(table == Table.MECHANISM) {
+                Mechanism mechanism = Mechanism.deserialize(entry.getValue());
+                entryMechanismUID = mechanism != null ? mechanism.getMechanismUID() : null;
+            } else if(table == Table.NOTIFICATION) {
+                PushNotification notification = PushNotification.deserialize(entry.getValue());
+                entryMechanismUID = notification != null ? notification.getMechanismUID() : null;
+            } else {
+                throw new IllegalArgumentException("Unsupported table: " + table);
+            }
+            if(mechanismUID != null && mechanismUID.equals(entryMechanismUID)) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public String getNotificationByMessageId(String messageId) {
+        if(messageId == null) {
+            return null;
+        }
+        for(String json : getAll(Table.NOTIFICATION).values()) {
+            PushNotification notification = PushNotification.deserialize(json);
+            if(notification != null && messageId.equals(notification.getMessageId())) {
+                return json;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Commit the batch with one commit per file, in the order accounts, mechanisms, notifications
+     * and backups, stopping at the first failure. SharedPreferences cannot commit several files
+     * atomically, so a failure can leave the first files written.
+     */
+    @Override
+    public boolean commit(FRAStorageBatch batch) {
+        return commitEntities(accountData, batch.accounts)
+                && commitEntities(mechanismData, batch.mechanisms)
+                && commitEntities(notificationData, batch.notifications)
+                && commitBackups(batch.backups);
+    }
+
+    @SuppressLint("ApplySharedPref")
+    @Override
+    public boolean clear(Table... tables) {
+        boolean success = true;
+        for(Table table : tables) {
+            success &= getData(table).edit()
+                    .clear()
+                    .commit();
+        }
+        return success;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return accountData.getAll().isEmpty() &&
+                mechanismData.getAll().isEmpty() &&
+                notificationData.getAll().isEmpty();
+    }
+
+    private SharedPreferences getData(Table table) {
+        switch (table) {
+            case ACCOUNT:
+                return accountData;
+            case MECHANISM:
+                return mechanismData;
+            case NOTIFICATION:
+                return notificationData;
+            case BACKUP:
+                return backupData;
+            default:
+                throw new IllegalArgumentException("Unsupported table: " + table);
+        }
+    }
+
+    private static boolean equals(String value, String other) {
+        return value == null ? other == null : value.equals(other);
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private static boolean commitEntities(SharedPreferences data,
+                                          Map<String, ? extends ModelObject<?>> entities) {
+        if(entities.isEmpty()) {
+            return true;
+        }
+
+        SharedPreferences.Editor editor = data.edit();
+        for(Map.Entry<String, ? extends ModelObject<?>> entry : entities.entrySet()) {
+            if(entry.getValue() != null) {
+                editor.putString(entry.getKey(), entry.getValue().serialize());
+            } else {
+                editor.remove(entry.getKey());
+            }
+        }
+        return editor.commit();
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private boolean commitBackups(Map<String, String> backups) {
+        if(backups.isEmpty()) {
+            return true;
+        }
+
+        SharedPreferences.Editor editor = backupData.edit();
+        for(Map.Entry<String, String> entry : backups.entrySet()) {
+            editor.putString(entry.getKey(), entry.getValue());
+        }
+        return editor.commit();
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import java.util.Map;
+
+/**
+ * Persistent store used by {@link FRAStorageClient} to load and save the serialized
+ * {@link Account}, {@link Mechanism}, {@link PushNotification} and backup data. The storage client
+ * keeps its own in-memory caches on top of the backend, and uses the lookups by indexed field to
+ * answer queries before the whole table is loaded.
+ */
+interface FRAStorageBackend {
+
+    /**
+     * The kinds of data kept by the backend.
+     */
+    enum Table {
+        ACCOUNT,
+        MECHANISM,
+        NOTIFICATION,
+        BACKUP
+    }
+
+    /**
+     * Get all the serialized entries of a table.
+     * @param table the table to read.
+     * @return the serialized entries by id.
+     */
+    Map<String, String> getAll(Table table);
+
+    /**
+     * Get a serialized entry.
+     * @param table the table to read.
+     * @param id the id of the entry.
+     * @return the serialized entry, or {@code null} if not found.
+     */
+    String get(Table table, String id);
+
+    /**
+     * Get the serialized mechanisms of an account.
+     * @param issuer the issuer of the account.
+     * @param accountName the name of the account.
+     * @return the serialized mechanisms by id.
+     */
+    Map<String, String> getMechanismsByAccount(String issuer, String accountName);
+
+    /**
+     * Get the serialized entries which belong to a mechanism: the mechanism itself from the
+     * {@link Table#MECHANISM} table, or its notifications from the {@link Table#NOTIFICATION} table.
+     * @param table the table to read.
+     * @param mechanismUID the mechanism UID.
+     * @return the serialized entries by id.
+     */
+    Map<String, String> getByMechanismUID(Table table, String mechanismUID);
+
+    /**
+     * Get a serialized notification by the id of the remote message it was received with.
+     * @param messageId the message id.
+     * @return the serialized notification, or {@code null} if not found.
+     */
+    String getNotificationByMessageId(String messageId);
+
+    /**
+     * Write all the changes of a batch.
+     * @param batch the changes to write.
+     * @return {@code true} if all the changes were written.
+     */
+    boolean commit(FRAStorageBatch batch);
+
+    /**
+     * Remove all the entries of the given tables.
+     * @param tables the tables to clear.
+     * @return {@code true} if the tables were cleared.
+     */
+    boolean clear(Table... tables);
+
+    /**
+     * Whether no account, mechanism or notification is stored.
+     * @return {@code true} if the backend holds no entity.
+     */
+    boolean isEmpty();
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Set of {@link Account}, {@link Mechanism}, {@link PushNotification} and backup changes which are
+ * written to the {@link FRAStorageClient} together, with a single commit per backing file.
+ * <p>
+ * Changes are only staged until {@link #commit()} is called. Staging the same entity more than once
+ * keeps the last change. The in-memory caches of the storage client are only updated once all the
+ * files were committed successfully.
+ */
+class FRAStorageBatch {
+
+    private final FRAStorageClient storageClient;
+
+    //Staged changes by entity id, a null value means that the entity is removed
+    final Map<String, Account> accounts = new LinkedHashMap<>();
+    final Map<String, Mechanism> mechanisms = new LinkedHashMap<>();
+    final Map<String, PushNotification> notifications = new LinkedHashMap<>();
+    final Map<String, String> backups = new LinkedHashMap<>();
+
+    FRAStorageBatch(@NonNull FRAStorageClient storageClient) {
+        this.storageClient = storageClient;
+    }
+
+    /**
+     * Create a batch which is not bound to a storage client, used to stage changes for a
+     * {@link FRAStorageBackend} directly.
+     */
+    FRAStorageBatch() {
+        this.storageClient = null;
+    }
+
+    FRAStorageBatch setAccount(@NonNull Account account) {
+        accounts.put(account.getId(), account);
+        return this;
+    }
+
+    FRAStorageBatch removeAccount(@NonNull Account account) {
+        accounts.put(account.getId(), null);
+        return this;
+    }
+
+    FRAStorageBatch setMechanism(@NonNull Mechanism mechanism) {
+        mechanisms.put(mechanism.getId(), mechanism);
+        return this;
+    }
+
+    FRAStorageBatch removeMechanism(@NonNull Mechanism mechanism) {
+        mechanisms.put(mechanism.getId(), null);
+        return this;
+    }
+
+    FRAStorageBatch setNotification(@NonNull PushNotification pushNotification) {
+        notifications.put(pushNotification.getId(), pushNotification);
+        return this;
+    }
+
+    FRAStorageBatch removeNotification(@NonNull PushNotification pushNotification) {
+        notifications.put(pushNotification.getId(), null);
+        return this;
+    }
+
+    FRAStorageBatch setBackup(@NonNull String id, @NonNull String jsonData) {
+        backups.put(id, jsonData);
+        return this;
+    }
+
+    /**
+     * Whether no change was staged.
+     * @return {@code true} if the batch is empty.
+     */
+    boolean isEmpty() {
+        return accounts.isEmpty() && mechanisms.isEmpty()
+                && notifications.isEmpty() && backups.isEmpty();
+    }
+
+    /**
+     * Stage all the changes of another batch, which take precedence over the changes of this batch.
+     * @param other the changes to add.
+     */
+    void merge(@NonNull FRAStorageBatch other) {
+        accounts.putAll(other.accounts);
+        mechanisms.putAll(other.mechanisms);
+        notifications.putAll(other.notifications);
+        backups.putAll(other.backups);
+    }
+
+    /**
+     * Write all the staged changes.
+     * @return {@code true} if all the changes were committed.
+     */
+    boolean commit() {
+        if (storageClient == null) {
+            throw new IllegalStateException("The batch is not bound to a storage client.");
+        }
+        return storageClient.commit(this);
+    }
+
+}
@@ -7,48 +7,106 @@
 
 package org.forgerock.android.auth;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Data Access Object which implements StorageClient interface and uses SecureSharedPreferences from
- * forgerock-core SDK to store and load Accounts, Mechanisms and Notifications.
+ * Data Access Object which implements StorageClient interface to store and load Accounts, Mechanisms
+ * and Notifications. The data is persisted by a {@link FRAStorageBackend}: SecureSharedPreferences
+ * from forgerock-core SDK by default, or an encrypted SQLite database when configured.
+ * <p>
+ * Entities are cached in memory. The caches are safe to use from the Flutter platform thread and
+ * from the broadcast receivers at the same time: each entity type has its own writer lock, and
+ * readers never block on writers. When an entity is replaced, its new index entries are added
+ * before the stale ones are removed, so a reader never misses it; a reader walking the
+ * notification timeline while a notification moves to another position may briefly see it twice.
+ * <p>
+ * Until a table is loaded, lookups by id or by indexed field are answered by the backend, so the
+ * first queries do not load and decrypt the whole table. In lazy deserialization mode, the
+ * entities are cached as raw JSON when loaded and each one is deserialized on first access. Queries over the whole collection, or through a secondary index,
+ * deserialize all the remaining entities first.
  */
 class FRAStorageClient implements StorageClient {
 
-    //Alias to store keys
-    private static final String FORGEROCK_SHARED_PREFERENCES_KEYS = "com.forgerock.authenticator.KEYS";
+    //The persistent store of the data
+    private final FRAStorageBackend backend;
 
-    //Settings to store the data
-    private static final String FORGEROCK_SHARED_PREFERENCES_DATA_ACCOUNT = "com.forgerock.authenticator.DATA.ACCOUNT";
-    private static final String FORGEROCK_SHARED_PREFERENCES_DATA_MECHANISM = "com.forgerock.authenticator.DATA.MECHANISM";
-    private static final String FORGEROCK_SHARED_PREFERENCES_DATA_NOTIFICATIONS = "com.forgerock.authenticator.DATA.NOTIFICATIONS";
-    private static final String FORGEROCK_SHARED_PREFERENCES_DATA_BACKUP = "com.forgerock.authenticator.DATA.BACKUP";
+    //In-memory caches
+    private final FRAEntityCache<Account> accountCache;
+    private final FRAEntityCache<Mechanism> mechanismCache;
+    private final FRAEntityCache<PushNotification> notificationCache;
 
-    //The SharedPreferences to store the data
-    private final SharedPreferences accountData;
-    private final SharedPreferences mechanismData;
-    private final SharedPreferences notificationData;
-    private final SharedPreferences backupData;
+    //Secondary indexes, list values are immutable and replaced on every update
+    private final ConcurrentHashMap<String, Mechanism> mechanismUIDIndex;
+    private final ConcurrentHashMap<String, List<Mechanism>> accountMechanismIndex;
+    private final ConcurrentHashMap<String, List<PushNotification>> mechanismNotificationIndex;
+    private final ConcurrentHashMap<String, PushNotification> messageIdIndex;
 
-    private final HashMap<String, Account> accountMap;
-    private final HashMap<String, Mechanism> mechanismMap;
-    private final HashMap<String, PushNotification> notificationMap;
+    //Notifications ordered by time added, newest first, used for the retention policy and paging
+    private final ConcurrentSkipListMap<FRANotificationCursor, PushNotification> notificationTimeline;
+
+    //Pending notifications ordered by time expired, the next one to expire is the last entry
+    private final ConcurrentSkipListMap<FRANotificationCursor, PushNotification> pendingExpirations;
+    private final AtomicInteger pendingCount;
 
     private static final String TAG = DefaultStorageClient.class.getSimpleName();
-    private static final int NOTIFICATIONS_MAX_SIZE = 20;
+    private static final char ACCOUNT_KEY_SEPARATOR = '\u001F';
+
+    //Coalesces the writes when write-behind is enabled, null otherwise
+    private final FRAWriteBehindQueue writeBehindQueue;
+
+    //Whether the loaded entities are kept as JSON until accessed
+    private final boolean lazyDeserialization;
+
+    //Retention policy of the notifications, 0 means unlimited
+    private final int notificationMaxCount;
+    private final long notificationTtlMillis;
+
+    //Background preload of the caches, null if it was never started
+    private volatile Future<?> warmUpFuture;
+
+    //Publishes the committed changes
+    private final FRAChangeFeed changeFeed = new FRAChangeFeed();
+
+    //Encode the payloads sent to the Flutter application
+    private static final FRAEntityCache.Encoder<Account> ACCOUNT_ENCODER = new FRAEntityCache.Encoder<Account>() {
+        @Override
+        public Map<String, Object> encode(Account account) {
+            return FRAChannelCodec.parse(account.toJson());
+        }
+    };
+    private static final FRAEntityCache.Encoder<Mechanism> MECHANISM_ENCODER = new FRAEntityCache.Encoder<Mechanism>() {
+        @Override
+        public Map<String, Object> encode(Mechanism mechanism) {
+            return FRAChannelCodec.parse(mechanism.toJson());
+        }
+    };
+    private static final FRAEntityCache.Encoder<PushNotification> NOTIFICATION_ENCODER = new FRAEntityCache.Encoder<PushNotification>() {
+        @Override
+        public Map<String, Object> encode(PushNotification pushNotification) {
+            return FRAChannelCodec.parse(pushNotification.toJson());
+        }
+    };
 
     /**
      * Constructor.
@@ -56,80 +114,204 @@ class FRAStorageClient implements StorageClient {
      * @param context application context.
      */
     public FRAStorageClient(Context context) {
-        this.accountData = new SecuredSharedPreferences(context,
-                FORGEROCK_SHARED_PREFERENCES_DATA_ACCOUNT, FORGEROCK_SHARED_PREFERENCES_KEYS);
-        this.mechanismData = new SecuredSharedPreferences(context,
-                FORGEROCK_SHARED_PREFERENCES_DATA_MECHANISM, FORGEROCK_SHARED_PREFERENCES_KEYS);
-        this.notificationData = new SecuredSharedPreferences(context,
-                FORGEROCK_SHARED_PREFERENCES_DATA_NOTIFICATIONS, FORGEROCK_SHARED_PREFERENCES_KEYS);
-        this.backupData = new SecuredSharedPreferences(context,
-                FORGEROCK_SHARED_PREFERENCES_DATA_BACKUP, FORGEROCK_SHARED_PREFERENCES_KEYS);
+        this(context, FRAClientConfig.defaults());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param context application context.
+     * @param config the plugin configuration.
+     */
+    public FRAStorageClient(Context context, FRAClientConfig config) {
+        this(config.getStorageType() == FRAClientConfig.StorageType.SQLITE
+                ? new FRASQLiteBackend(context)
+                : FRASQLiteBackend.migrateBackIfNeeded(context), config);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param backend the backend storing the data.
+     * @param config the plugin configuration.
+     */
+    FRAStorageClient(FRAStorageBackend backend, FRAClientConfig config) {
+        this.backend = new FRAMeteredBackend(backend);
+
+        this.accountCache = new FRAEntityCache<>();
+        this.mechanismCache = new FRAEntityCache<>();
+        this.notificationCache = new FRAEntityCache<>();
+
+        this.mechanismUIDIndex = new ConcurrentHashMap<>();
+        this.accountMechanismIndex = new ConcurrentHashMap<>();
+        this.mechanismNotificationIndex = new ConcurrentHashMap<>();
+        this.messageIdIndex = new ConcurrentHashMap<>();
+        this.notificationTimeline = new ConcurrentSkipListMap<>();
+        this.pendingExpirations = new ConcurrentSkipListMap<>();
+        this.pendingCount = new AtomicInteger();
+
+        if(config.getWriteBehindWindowMillis() > 0) {
+            this.writeBehindQueue = new FRAWriteBehindQueue(this.backend,
+                    config.getWriteBehindWindowMillis(), new FRAWriteBehindQueue.Listener() {
+                        @Override
+                        public void onChangesDropped() {
+                            // The cached data was never persisted, reload it from the backend
+                            synchronized (accountCache.getLock()) {
+                                synchronized (mechanismCache.getLock()) {
+                                    synchronized (notificationCache.getLock()) {
+                                        invalidateCaches();
+                                    }
+                                }
+                            }
+                        }
+                    });
+        } else {
+            this.writeBehindQueue = null;
+        }
 
-        this.accountMap = new HashMap<>();
-        this.mechanismMap = new HashMap<>();
-        this.notificationMap = new HashMap<>();
+        this.lazyDeserialization = config.isLazyDeserialization();
+        this.notificationMaxCount = config.getNotificationMaxCount();
+        this.notificationTtlMillis = config.getNotificationTtlSeconds() * 1000L;
     }
 
     @Override
     public Account getAccount(String accountId) {
-        if(this.accountMap.containsKey(accountId)) {
-            return this.accountMap.get(accountId);
+        this.awaitWarmUp();
+        Account account = this.accountCache.get(accountId);
+        if(account == null && this.accountCache.hasSerialized()) {
+            account = this.resolveAccount(accountId);
+        }
+        if(account != null || this.accountCache.isLoaded()) {
+            return account;
         } else {
-            String json = accountData.getString(accountId, "");
-            return Account.deserialize(json);
+            this.awaitPendingWrites();
+            String json = backend.get(FRAStorageBackend.Table.ACCOUNT, accountId);
+            return json != null ? Account.deserialize(json) : null;
         }
     }
 
     @Override
     public List<Account> getAllAccounts() {
-        List<Account> accountList;
-
-        if(this.accountMap.isEmpty()) {
-            accountList = new ArrayList<>();
-            Map<String,?> keys = accountData.getAll();
-            for(Map.Entry<String,?> entry : keys.entrySet()){
-                if(entry.getValue() != null) {
-                    Logger.debug(TAG, "Account map values: ",entry.getKey() + ": " + entry.getValue().toString());
-                    Account account = Account.deserialize(entry.getValue().toString());
-                    if(account != null) {
-                        accountList.add(account);
-                        this.accountMap.put(account.getId(), account);
-                    }
+        this.loadAccounts();
+        this.materializeAccounts();
+        return new ArrayList<>(this.accountCache.values());
+    }
+
+    private void loadAccounts() {
+        if(this.accountCache.isLoaded()) {
+            return;
+        }
+
+        this.awaitWarmUp();
+        this.loadAccountsNow();
+    }
+
+    private void loadAccountsNow() {
+        if(this.accountCache.isLoaded()) {
+            return;
+        }
+
+        synchronized (this.accountCache.getLock()) {
+            if(this.accountCache.isLoaded()) {
+                return;
+            }
+
+            this.awaitPendingWrites();
+            Map<String, String> keys = backend.getAll(FRAStorageBackend.Table.ACCOUNT);
+            for(Map.Entry<String, String> entry : keys.entrySet()){
+                Logger.debug(TAG, "Account map values: ",entry.getKey() + ": " + entry.getValue());
+                if(this.lazyDeserialization) {
+                    this.accountCache.putSerialized(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                Account account = Account.deserialize(entry.getValue());
+                if(account != null) {
+                    this.accountCache.put(account.getId(), account);
                 }
             }
-        } else {
-            accountList = new ArrayList<>(this.accountMap.values());
+            this.accountCache.setLoaded();
         }
+    }
+
+    /**
+     * Deserialize a single account cached as JSON.
+     * @param accountId The account unique ID.
+     * @return The account, or {@code null} if it is not cached as JSON.
+     */
+    private Account resolveAccount(String accountId) {
+        synchronized (this.accountCache.getLock()) {
+            Account account = this.accountCache.get(accountId);
+            String json = this.accountCache.getSerialized(accountId);
+            if(account != null || json == null) {
+                return account;
+            }
 
-        return accountList;
+            account = Account.deserialize(json);
+            if(account != null) {
+                this.accountCache.put(accountId, account);
+            } else {
+                this.accountCache.removeSerialized(accountId);
+            }
+            return account;
+        }
+    }
+
+    /**
+     * Deserialize all the accounts still cached as JSON.
+     */
+    private void materializeAccounts() {
+        if(!this.accountCache.hasSerialized()) {
+            return;
+        }
+
+        synchronized (this.accountCache.getLock()) {
+            for(Map.Entry<String, String> entry : this.accountCache.getAllSerialized().entrySet()) {
+                Account account = Account.deserialize(entry.getValue());
+                if(account != null) {
+                    this.accountCache.put(account.getId(), account);
+                }
+                this.accountCache.removeSerialized(entry.getKey());
+            }
+        }
     }
 
     @Override
     public boolean removeAccount(Account account) {
-        boolean success = accountData.edit()
-                .remove(account.getId())
-                .commit();
+        synchronized (this.accountCache.getLock()) {
+            boolean success = this.write(new FRAStorageBatch().removeAccount(account));
 
-        if(success) {
-            this.accountMap.remove(account.getId());
-        }
+            if(success) {
+                this.accountCache.remove(account.getId());
+                this.changeFeed.remove(FRAChangeFeed.Entity.ACCOUNT, account.getId());
+            }
 
-        return success;
+            return success;
+        }
     }
 
     @Override
     public boolean setAccount(Account account) {
-        String accountJson = account.serialize();
+        this.loadAccounts();
+        synchronized (this.accountCache.getLock()) {
+            boolean success = this.write(new FRAStorageBatch().setAccount(account));
 
-        boolean success = accountData.edit()
-                .putString(account.getId(), accountJson)
-                .commit();
+            if(success) {
+                this.putAccountEntry(account);
+            }
 
-        if(success) {
-            this.accountMap.put(account.getId(), account);
+            return success;
         }
+    }
 
-        return success;
+    /**
+     * Add or replace the cached account and publish the change. Must be called while holding the
+     * account cache lock.
+     * @param account The account to cache.
+     */
+    private void putAccountEntry(Account account) {
+        boolean added = !this.accountCache.contains(account.getId());
+        this.accountCache.put(account.getId(), account);
+        this.changeFeed.put(FRAChangeFeed.Entity.ACCOUNT, account.getId(), account, added);
     }
 
     /**
@@ -138,43 +320,121 @@ class FRAStorageClient implements StorageClient {
      * @return The complete list of mechanisms.
      */
     public List<Mechanism> getAllMechanisms() {
-        List<Mechanism> mechanismList;
-
-        if(this.mechanismMap.isEmpty()) {
-            mechanismList = new ArrayList<>();
-            Map<String,?> keys = mechanismData.getAll();
-            for(Map.Entry<String,?> entry : keys.entrySet()){
-                if(entry.getValue() != null) {
-                    Logger.debug(TAG, "Mechanism map values: ",entry.getKey() + ": " + entry.getValue().toString());
-                    String jsonData = entry.getValue().toString();
-
-                    Mechanism mechanism = Mechanism.deserialize(jsonData);
-                    if(mechanism != null) {
-                        mechanismList.add(mechanism);
-                        this.mechanismMap.put(mechanism.getId(), mechanism);
-                    }
+        this.loadMechanisms();
+        this.materializeMechanisms();
+        return new ArrayList<>(this.mechanismCache.values());
+    }
+
+    private void loadMechanisms() {
+        if(this.mechanismCache.isLoaded()) {
+            return;
+        }
+
+        this.awaitWarmUp();
+        this.loadMechanismsNow();
+    }
+
+    private void loadMechanismsNow() {
+        if(this.mechanismCache.isLoaded()) {
+            return;
+        }
+
+        synchronized (this.mechanismCache.getLock()) {
+            if(this.mechanismCache.isLoaded()) {
+                return;
+            }
+
+            this.awaitPendingWrites();
+            Map<String, String> keys = backend.getAll(FRAStorageBackend.Table.MECHANISM);
+            for(Map.Entry<String, String> entry : keys.entrySet()){
+                Logger.debug(TAG, "Mechanism map values: ",entry.getKey() + ": " + entry.getValue());
+                if(this.lazyDeserialization) {
+                    this.mechanismCache.putSerialized(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                Mechanism mechanism = Mechanism.deserialize(entry.getValue());
+                if(mechanism != null) {
+                    this.putMechanismEntry(mechanism);
                 }
             }
-        } else {
-            mechanismList = new ArrayList<>(this.mechanismMap.values());
+            this.mechanismCache.setLoaded();
         }
+    }
 
-        return mechanismList;
+    /**
+     * Deserialize a single mechanism cached as JSON and add it to the secondary indexes.
+     * @param mechanismId The mechanism unique ID.
+     * @return The mechanism, or {@code null} if it is not cached as JSON.
+     */
+    private Mechanism resolveMechanism(String mechanismId) {
+        synchronized (this.mechanismCache.getLock()) {
+            Mechanism mechanism = this.mechanismCache.get(mechanismId);
+            String json = this.mechanismCache.getSerialized(mechanismId);
+            if(mechanism != null || json == null) {
+                return mechanism;
+            }
+
+            mechanism = Mechanism.deserialize(json);
+            if(mechanism != null) {
+                this.putMechanismEntry(mechanism);
+            }
+            this.mechanismCache.removeSerialized(mechanismId);
+            return mechanism;
+        }
+    }
+
+    /**
+     * Deserialize all the mechanisms still cached as JSON, so the secondary indexes are complete.
+     */
+    private void materializeMechanisms() {
+        if(!this.mechanismCache.hasSerialized()) {
+            return;
+        }
+
+        synchronized (this.mechanismCache.getLock()) {
+            for(Map.Entry<String, String> entry : this.mechanismCache.getAllSerialized().entrySet()) {
+                Mechanism mechanism = Mechanism.deserialize(entry.getValue());
+                if(mechanism != null) {
+                    this.putMechanismEntry(mechanism);
+                }
+                this.mechanismCache.removeSerialized(entry.getKey());
+            }
+        }
     }
 
     @Override
     public List<Mechanism> getMechanismsForAccount(Account account) {
-        List<Mechanism> mechanismList = new ArrayList<>();
-
-        List<Mechanism> allMechanisms = this.getAllMechanisms();
-        for(Mechanism mechanism : allMechanisms){
-            if(mechanism.getIssuer().equals(account.getIssuer()) &&
-                    mechanism.getAccountName().equals(account.getAccountName())){
-                mechanismList.add(mechanism);
+        this.awaitWarmUp();
+        if(!this.mechanismCache.isLoaded()) {
+            // Look the mechanisms up without loading all of them
+            this.awaitPendingWrites();
+            List<Mechanism> mechanismList = new ArrayList<>();
+            for(String json : backend.getMechanismsByAccount(account.getIssuer(), account.getAccountName()).values()) {
+                Mechanism mechanism = Mechanism.deserialize(json);
+                if(mechanism != null) {
+                    mechanismList.add(mechanism);
+                }
             }
+            return mechanismList;
         }
+        this.materializeMechanisms();
 
-        return mechanismList;
+        List<Mechanism> mechanismList = this.accountMechanismIndex
+                .get(getAccountKey(account.getIssuer(), account.getAccountName()));
+        if(mechanismList == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(mechanismList);
+    }
+
+    /**
+     * Build the composite key used to group mechanisms by account.
+     * @param issuer The account issuer.
+     * @param accountName The account name.
+     * @return The key of the account in the account index.
+     */
+    private static String getAccountKey(String issuer, String accountName) {
+        return issuer + ACCOUNT_KEY_SEPARATOR + accountName;
     }
 
     private String getMechanismId(String mechanismId) {
@@ -189,62 +449,134 @@ class FRAStorageClient implements StorageClient {
     }
 
     public Mechanism getMechanism(String mechanismId) {
+        this.awaitWarmUp();
         String id = getMechanismId(mechanismId);
-        if(this.mechanismMap.containsKey(id)) {
-            return this.mechanismMap.get(id);
+        Mechanism mechanism = this.mechanismCache.get(id);
+        if(mechanism == null && this.mechanismCache.hasSerialized()) {
+            mechanism = this.resolveMechanism(id);
+        }
+        if(mechanism != null || this.mechanismCache.isLoaded()) {
+            return mechanism;
         } else {
-            String json = mechanismData.getString(id, "");
-            return Mechanism.deserialize(json);
+            this.awaitPendingWrites();
+            String json = backend.get(FRAStorageBackend.Table.MECHANISM, id);
+            return json != null ? Mechanism.deserialize(json) : null;
         }
     }
 
     @Override
     public Mechanism getMechanismByUUID(String mechanismUID) {
-        Mechanism mechanism = null;
-
-        List<Mechanism> allMechanisms;
-        if(this.mechanismMap.isEmpty()) {
-            allMechanisms = this.getAllMechanisms();
-        } else {
-            allMechanisms = new ArrayList<>(this.mechanismMap.values());
+        if(mechanismUID == null) {
+            return null;
         }
 
-        for(Mechanism mechanismEntry : allMechanisms){
-            if (mechanismEntry.getMechanismUID().equals(mechanismUID)) {
-                mechanism = mechanismEntry;
-                break;
+        this.awaitWarmUp();
+        if(!this.mechanismCache.isLoaded()) {
+            // Look the mechanism up without loading all of them
+            this.awaitPendingWrites();
+            for(String json : backend.getByMechanismUID(FRAStorageBackend.Table.MECHANISM, mechanismUID).values()) {
+                return Mechanism.deserialize(json);
             }
+            return null;
         }
-
-        return mechanism;
+        this.materializeMechanisms();
+        return this.mechanismUIDIndex.get(mechanismUID);
     }
 
     @Override
     public boolean removeMechanism(Mechanism mechanism) {
-        boolean success = mechanismData.edit()
-                .remove(mechanism.getId())
-                .commit();
+        synchronized (this.mechanismCache.getLock()) {
+            boolean success = this.write(new FRAStorageBatch().removeMechanism(mechanism));
 
-        if(success) {
-            this.mechanismMap.remove(mechanism.getId());
-        }
+            if(success) {
+                this.removeMechanismEntry(mechanism.getId());
+                this.changeFeed.remove(FRAChangeFeed.Entity.MECHANISM, mechanism.getId());
+            }
 
-        return success;
+            return success;
+        }
     }
 
     @Override
     public boolean setMechanism(Mechanism mechanism) {
-        String mechanismJson = mechanism.serialize();
+        this.loadMechanisms();
+        synchronized (this.mechanismCache.getLock()) {
+            boolean success = this.write(new FRAStorageBatch().setMechanism(mechanism));
+
+            if(success) {
+                boolean added = !this.mechanismCache.contains(mechanism.getId());
+                this.putMechanismEntry(mechanism);
+                this.changeFeed.put(FRAChangeFeed.Entity.MECHANISM, mechanism.getId(), mechanism, added);
+            }
 
-        boolean success = mechanismData.edit()
-                .putString(mechanism.getId(), mechanismJson)
-                .commit();
+            return success;
+        }
+    }
 
-        if(success) {
-            this.mechanismMap.put(mechanism.getId(), mechanism);
+    /**
+     * Add or replace the cached mechanism and keep the secondary indexes in sync. Must be called
+     * while holding the mechanism cache lock.
+     * @param mechanism The mechanism to cache.
+     */
+    private void putMechanismEntry(Mechanism mechanism) {
+        Mechanism previous = this.mechanismCache.put(mechanism.getId(), mechanism);
+
+        // Add the new entries before removing the stale ones, so readers never miss the mechanism
+        String mechanismUID = mechanism.getMechanismUID();
+        if(mechanismUID != null) {
+            this.mechanismUIDIndex.put(mechanismUID, mechanism);
+        }
+        String accountKey = getAccountKey(mechanism.getIssuer(), mechanism.getAccountName());
+        String previousAccountKey = previous == null ? null
+                : getAccountKey(previous.getIssuer(), previous.getAccountName());
+        this.accountMechanismIndex.put(accountKey,
+                withEntry(this.accountMechanismIndex.get(accountKey),
+                        accountKey.equals(previousAccountKey) ? previous : null, mechanism));
+
+        if(previous == null) {
+            return;
+        }
+        String previousUID = previous.getMechanismUID();
+        if(previousUID != null && !previousUID.equals(mechanismUID)) {
+            this.mechanismUIDIndex.remove(previousUID, previous);
+        }
+        if(!accountKey.equals(previousAccountKey)) {
+            this.removeAccountMechanismIndex(previousAccountKey, previous);
         }
+    }
 
-        return success;
+    /**
+     * Remove the cached mechanism and its entries from the secondary indexes. Must be called
+     * while holding the mechanism cache lock.
+     * @param mechanismId The mechanism unique ID.
+     */
+    private void removeMechanismEntry(String mechanismId) {
+        Mechanism previous = this.mechanismCache.remove(mechanismId);
+        if(previous != null) {
+            this.removeMechanismIndexes(previous);
+        }
+    }
+
+    /**
+     * Remove a mechanism from the secondary indexes.
+     * @param mechanism The mechanism previously cached.
+     */
+    private void removeMechanismIndexes(Mechanism mechanism) {
+        if(mechanism.getMechanismUID() != null) {
+            this.mechanismUIDIndex.remove(mechanism.getMechanismUID(), mechanism);
+        }
+
+        this.removeAccountMechanismIndex(
+                getAccountKey(mechanism.getIssuer(), mechanism.getAccountName()), mechanism);
+    }
+
+    private void removeAccountMechanismIndex(String accountKey, Mechanism mechanism) {
+        List<Mechanism> accountMechanisms = withoutEntry(this.accountMechanismIndex.get(accountKey), mechanism);
+        if(accountMechanisms.isEmpty()) {
+            this.accountMechanismIndex.remove(accountKey);
+        } else {
+            this.accountMechanismIndex.put(accountKey, accountMechanisms);
+        }
     }
 
     /**
@@ -254,79 +586,295 @@ class FRAStorageClient implements StorageClient {
      */
     @Override
     public List<PushNotification> getAllNotifications() {
-        List<PushNotification> pushNotificationList;
-
-        if(this.notificationMap.isEmpty()) {
-            pushNotificationList = new ArrayList<>();
-            Map<String,?> keys = notificationData.getAll();
-            for(Map.Entry<String,?> entry : keys.entrySet()){
-                if(entry.getValue() != null) {
-                    Logger.debug(TAG, "PushNotification map values: ",
-                            entry.getKey() + ": " + entry.getValue().toString());
-                    PushNotification pushNotification = PushNotification.deserialize(entry.getValue().toString());
-                    if(pushNotification != null) {
-                        pushNotificationList.add(pushNotification);
-                        this.notificationMap.put(pushNotification.getId(), pushNotification);
-                    }
+        this.loadNotifications();
+        this.materializeNotifications();
+
+        return new ArrayList<>(this.notificationTimeline.values());
+    }
+
+    /**
+     * Get the number of notifications which are pending and not expired. The count is maintained
+     * as notifications are added, updated and removed, only the notifications which expired since
+     * the last call are visited.
+     *
+     * @return The number of pending notifications.
+     */
+    public int getPendingNotificationsCount() {
+        this.loadNotifications();
+        this.materializeNotifications();
+
+        long now = System.currentTimeMillis();
+        Map.Entry<FRANotificationCursor, PushNotification> next;
+        while((next = this.pendingExpirations.lastEntry()) != null
+                && next.getKey().getTime() <= now) {
+            if(this.pendingExpirations.remove(next.getKey()) != null) {
+                this.pendingCount.decrementAndGet();
+            }
+        }
+        return this.pendingCount.get();
+    }
+
+    /**
+     * Get a page of the notifications stored in the system, ordered by time added, newest first.
+     *
+     * @param query The cursor, page size and filters of the notifications to return.
+     * @return The notifications matching the query.
+     */
+    public List<PushNotification> getNotifications(FRANotificationQuery query) {
+        if(query.isEmptyRange()) {
+            return new ArrayList<>();
+        }
+        this.loadNotifications();
+        this.materializeNotifications();
+
+        ConcurrentNavigableMap<FRANotificationCursor, PushNotification> range = this.notificationTimeline;
+        if(query.getOlderThan() != null) {
+            range = range.tailMap(query.getOlderThan(), false);
+        }
+        if(query.getNewerThan() != null) {
+            range = range.headMap(query.getNewerThan(), false);
+        }
+
+        // Fetching new entries only, the page starts right after the cursor
+        boolean fromOldest = query.getNewerThan() != null && query.getOlderThan() == null;
+        Collection<PushNotification> candidates = fromOldest
+                ? range.descendingMap().values() : range.values();
+
+        List<PushNotification> pushNotificationList = new ArrayList<>();
+        for(PushNotification pushNotification : candidates) {
+            if(query.getLimit() > 0 && pushNotificationList.size() >= query.getLimit()) {
+                break;
+            }
+            if(query.matches(pushNotification)) {
+                pushNotificationList.add(pushNotification);
+            }
+        }
+        if(fromOldest) {
+            Collections.reverse(pushNotificationList);
+        }
+        return pushNotificationList;
+    }
+
+    private void loadNotifications() {
+        if(this.notificationCache.isLoaded()) {
+            return;
+        }
+
+        this.awaitWarmUp();
+        this.loadNotificationsNow();
+    }
+
+    private void loadNotificationsNow() {
+        if(this.notificationCache.isLoaded()) {
+            return;
+        }
+
+        synchronized (this.notificationCache.getLock()) {
+            if(this.notificationCache.isLoaded()) {
+                return;
+            }
+
+            this.awaitPendingWrites();
+            Map<String, String> keys = backend.getAll(FRAStorageBackend.Table.NOTIFICATION);
+            for(Map.Entry<String, String> entry : keys.entrySet()){
+                Logger.debug(TAG, "PushNotification map values: ",
+                        entry.getKey() + ": " + entry.getValue());
+                if(this.lazyDeserialization) {
+                    this.notificationCache.putSerialized(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                PushNotification pushNotification = PushNotification.deserialize(entry.getValue());
+                if(pushNotification != null) {
+                    this.putNotificationEntry(pushNotification);
                 }
             }
-        } else {
-            pushNotificationList = new ArrayList<>(this.notificationMap.values());
+            this.notificationCache.setLoaded();
         }
+    }
 
-        Collections.sort(pushNotificationList);
-        return this.removeOldNotificationEntries(pushNotificationList);
+    /**
+     * Deserialize a single notification cached as JSON and add it to the secondary indexes.
+     * @param notificationId The PushNotification unique ID.
+     * @return The notification, or {@code null} if it is not cached as JSON.
+     */
+    private PushNotification resolveNotification(String notificationId) {
+        synchronized (this.notificationCache.getLock()) {
+            PushNotification pushNotification = this.notificationCache.get(notificationId);
+            String json = this.notificationCache.getSerialized(notificationId);
+            if(pushNotification != null || json == null) {
+                return pushNotification;
+            }
+
+            pushNotification = PushNotification.deserialize(json);
+            if(pushNotification != null) {
+                this.putNotificationEntry(pushNotification);
+            }
+            this.notificationCache.removeSerialized(notificationId);
+            return pushNotification;
+        }
     }
 
-    private List<PushNotification> removeOldNotificationEntries(List<PushNotification> pushNotificationList) {
-        Logger.debug(TAG, "Checking old PushNotification entries to remove...");
-        int removedEntries = 0;
-        while (pushNotificationList.size() > NOTIFICATIONS_MAX_SIZE) {
-            int lastElement = pushNotificationList.size() - 1;
-            this.removeNotification(pushNotificationList.get(lastElement));
-            pushNotificationList.remove(lastElement);
-            removedEntries++;
+    /**
+     * Deserialize all the notifications still cached as JSON, so the secondary indexes are
+     * complete.
+     */
+    private void materializeNotifications() {
+        if(!this.notificationCache.hasSerialized()) {
+            return;
+        }
+
+        synchronized (this.notificationCache.getLock()) {
+            for(Map.Entry<String, String> entry : this.notificationCache.getAllSerialized().entrySet()) {
+                PushNotification pushNotification = PushNotification.deserialize(entry.getValue());
+                if(pushNotification != null) {
+                    this.putNotificationEntry(pushNotification);
+                }
+                this.notificationCache.removeSerialized(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Select the notifications to remove according to the retention policy, starting from the
+     * oldest one: the ones exceeding the maximum count and the ones older than the TTL. Must be
+     * called while holding the notification cache lock.
+     * @param added The notification about to be added, which is never selected, or {@code null}.
+     * @return The notifications to remove.
+     */
+    private List<PushNotification> selectEvictedNotifications(PushNotification added) {
+        List<PushNotification> evicted = new ArrayList<>();
+        if(this.notificationMaxCount <= 0 && this.notificationTtlMillis <= 0) {
+            return evicted;
+        }
+
+        this.materializeNotifications();
+        int remaining = this.notificationCache.size();
+        if(added != null && this.notificationCache.get(added.getId()) == null) {
+            remaining++;
+        }
+        long oldestTimeAdded = this.notificationTtlMillis > 0
+                ? System.currentTimeMillis() - this.notificationTtlMillis : Long.MIN_VALUE;
+
+        Iterator<PushNotification> iterator = this.notificationTimeline.descendingMap().values().iterator();
+        while(iterator.hasNext()) {
+            PushNotification pushNotification = iterator.next();
+            if(added != null && pushNotification.getId().equals(added.getId())) {
+                continue;
+            }
+            boolean overflow = this.notificationMaxCount > 0 && remaining > this.notificationMaxCount;
+            if(!overflow && FRANotificationCursor.of(pushNotification).getTime() >= oldestTimeAdded) {
+                break;
+            }
+            evicted.add(pushNotification);
+            remaining--;
+        }
+        return evicted;
+    }
+
+    /**
+     * Remove the notifications exceeding the retention policy with a single write. Must be called
+     * while holding the notification cache lock.
+     */
+    private void evictNotifications() {
+        List<PushNotification> evicted = this.selectEvictedNotifications(null);
+        if(evicted.isEmpty()) {
+            return;
+        }
+
+        FRAStorageBatch changes = new FRAStorageBatch();
+        for(PushNotification pushNotification : evicted) {
+            changes.removeNotification(pushNotification);
+        }
+        if(this.write(changes)) {
+            for(PushNotification pushNotification : evicted) {
+                this.removeNotificationEntry(pushNotification.getId());
+                this.changeFeed.remove(FRAChangeFeed.Entity.NOTIFICATION, pushNotification.getId());
+            }
+            Logger.debug(TAG, evicted.size() + " PushNotification entries removed.");
         }
-        Logger.debug(TAG, removedEntries + " PushNotification entries removed.");
-        return pushNotificationList;
     }
 
     @Override
     public List<PushNotification> getAllNotificationsForMechanism(Mechanism mechanism) {
-        List<PushNotification> pushNotificationList = new ArrayList<>();
+        if(mechanism.getMechanismUID() == null) {
+            return new ArrayList<>();
+        }
 
-        List<PushNotification> allPushNotifications = this.getAllNotifications();
-        for(PushNotification pushNotification : allPushNotifications){
-            if(pushNotification.getMechanismUID().equals(mechanism.getMechanismUID())){
-                pushNotification.setPushMechanism(mechanism);
-                pushNotificationList.add(pushNotification);
+        List<PushNotification> pushNotificationList = new ArrayList<>();
+        this.awaitWarmUp();
+        if(!this.notificationCache.isLoaded()) {
+            // Look the notifications up without loading all of them
+            this.awaitPendingWrites();
+            for(String json : backend.getByMechanismUID(FRAStorageBackend.Table.NOTIFICATION,
+                    mechanism.getMechanismUID()).values()) {
+                PushNotification pushNotification = PushNotification.deserialize(json);
+                if(pushNotification != null) {
+                    pushNotificationList.add(pushNotification);
+                }
+            }
+        } else {
+            this.materializeNotifications();
+            List<PushNotification> mechanismNotifications =
+                    this.mechanismNotificationIndex.get(mechanism.getMechanismUID());
+            if(mechanismNotifications != null) {
+                pushNotificationList.addAll(mechanismNotifications);
             }
         }
 
+        for(PushNotification pushNotification : pushNotificationList) {
+            pushNotification.setPushMechanism(mechanism);
+        }
+        Collections.sort(pushNotificationList);
+
         return pushNotificationList;
     }
 
     @Override
     public boolean removeNotification(PushNotification pushNotification) {
-        boolean success = notificationData.edit()
-                .remove(pushNotification.getId())
-                .commit();
+        synchronized (this.notificationCache.getLock()) {
+            boolean success = this.write(new FRAStorageBatch().removeNotification(pushNotification));
 
-        if(success) {
-            this.notificationMap.remove(pushNotification.getId());
-        }
+            if(success) {
+                this.removeNotificationEntry(pushNotification.getId());
+                this.changeFeed.remove(FRAChangeFeed.Entity.NOTIFICATION, pushNotification.getId());
+            }
 
-        return success;
+            return success;
+        }
     }
 
     /**
      * Remove all the stored {@link PushNotification}
      */
     public void removeAllNotifications() {
-        notificationData.edit()
-                .clear()
-                .commit();
-        notificationMap.clear();
+        synchronized (this.notificationCache.getLock()) {
+            this.awaitPendingWrites();
+            backend.clear(FRAStorageBackend.Table.NOTIFICATION);
+            this.clearNotificationEntries();
+            this.changeFeed.reset(FRAChangeFeed.Entity.NOTIFICATION);
+        }
+    }
+
+    /**
+     * Get the PushNotification object with its messageId
+     * @param messageId The messageId received with the remote message
+     * @return The PushNotification object, or {@code null} if not found.
+     */
+    public PushNotification getNotificationByMessageId(String messageId) {
+        if(messageId == null) {
+            return null;
+        }
+
+        this.awaitWarmUp();
+        if(!this.notificationCache.isLoaded()) {
+            // Look the notification up without loading all of them
+            this.awaitPendingWrites();
+            String json = backend.getNotificationByMessageId(messageId);
+            return json != null ? PushNotification.deserialize(json) : null;
+        }
+        this.materializeNotifications();
+
+        return this.messageIdIndex.get(messageId);
     }
 
     /**
@@ -335,38 +883,265 @@ class FRAStorageClient implements StorageClient {
      * @return The PushNotification object.
      */
     public PushNotification getNotification(String notificationId) {
-        if(this.notificationMap.containsKey(notificationId)) {
-            return this.notificationMap.get(notificationId);
+        this.awaitWarmUp();
+        PushNotification pushNotification = this.notificationCache.get(notificationId);
+        if(pushNotification == null && this.notificationCache.hasSerialized()) {
+            pushNotification = this.resolveNotification(notificationId);
+        }
+        if(pushNotification != null || this.notificationCache.isLoaded()) {
+            return pushNotification;
         } else {
-            String json = notificationData.getString(notificationId, null);
-            return PushNotification.deserialize(json);
+            this.awaitPendingWrites();
+            String json = backend.get(FRAStorageBackend.Table.NOTIFICATION, notificationId);
+            return json != null ? PushNotification.deserialize(json) : null;
         }
     }
 
     @Override
     public boolean setNotification(@NonNull PushNotification pushNotification) {
-        String notificationJson = pushNotification.serialize();
+        this.loadNotifications();
+        synchronized (this.notificationCache.getLock()) {
+            // Apply the retention policy with the same write
+            List<PushNotification> evicted = this.selectEvictedNotifications(pushNotification);
+            FRAStorageBatch changes = new FRAStorageBatch().setNotification(pushNotification);
+            for(PushNotification evictedNotification : evicted) {
+                changes.removeNotification(evictedNotification);
+            }
+
+            boolean success = this.write(changes);
+
+            if(success) {
+                boolean added = !this.notificationCache.contains(pushNotification.getId());
+                this.putNotificationEntry(pushNotification);
+                this.changeFeed.put(FRAChangeFeed.Entity.NOTIFICATION, pushNotification.getId(),
+                        pushNotification, added);
+                for(PushNotification evictedNotification : evicted) {
+                    this.removeNotificationEntry(evictedNotification.getId());
+                    this.changeFeed.remove(FRAChangeFeed.Entity.NOTIFICATION, evictedNotification.getId());
+                }
+            }
+
+            return success;
+        }
+    }
+
+    /**
+     * Add or replace the cached notification and keep the secondary indexes in sync. Must be
+     * called while holding the notification cache lock.
+     * @param pushNotification The notification to cache.
+     */
+    private void putNotificationEntry(PushNotification pushNotification) {
+        PushNotification previous = this.notificationCache.put(pushNotification.getId(), pushNotification);
+
+        // Add the new entries before removing the stale ones, so readers never miss the
+        // notification, in particular the duplicate check of a redelivered message
+        FRANotificationCursor cursor = FRANotificationCursor.of(pushNotification);
+        this.notificationTimeline.put(cursor, pushNotification);
+        FRANotificationCursor expiry = pushNotification.isPending()
+                ? FRANotificationCursor.expiryOf(pushNotification) : null;
+        if(expiry != null && this.pendingExpirations.put(expiry, pushNotification) == null) {
+            this.pendingCount.incrementAndGet();
+        }
+        String messageId = pushNotification.getMessageId();
+        if(messageId != null) {
+            this.messageIdIndex.put(messageId, pushNotification);
+        }
+        String mechanismUID = pushNotification.getMechanismUID();
+        String previousMechanismUID = previous == null ? null : previous.getMechanismUID();
+        if(mechanismUID != null) {
+            this.mechanismNotificationIndex.put(mechanismUID,
+                    withEntry(this.mechanismNotificationIndex.get(mechanismUID),
+                            mechanismUID.equals(previousMechanismUID) ? previous : null, pushNotification));
+        }
+
+        if(previous == null) {
+            return;
+        }
+        FRANotificationCursor previousCursor = FRANotificationCursor.of(previous);
+        if(!previousCursor.equals(cursor)) {
+            this.notificationTimeline.remove(previousCursor, previous);
+        }
+        FRANotificationCursor previousExpiry = FRANotificationCursor.expiryOf(previous);
+        if(!previousExpiry.equals(expiry)
+                && this.pendingExpirations.remove(previousExpiry, previous)) {
+            this.pendingCount.decrementAndGet();
+        }
+        String previousMessageId = previous.getMessageId();
+        if(previousMessageId != null && !previousMessageId.equals(messageId)) {
+            this.messageIdIndex.remove(previousMessageId, previous);
+        }
+        if(previousMechanismUID != null && !previousMechanismUID.equals(mechanismUID)) {
+            this.removeMechanismNotificationIndex(previousMechanismUID, previous);
+        }
+    }
+
+    /**
+     * Remove the cached notification and its entries from the secondary indexes. Must be called
+     * while holding the notification cache lock.
+     * @param notificationId The PushNotification unique ID.
+     */
+    private void removeNotificationEntry(String notificationId) {
+        PushNotification previous = this.notificationCache.remove(notificationId);
+        if(previous != null) {
+            this.removeNotificationIndexes(previous);
+        }
+    }
+
+    /**
+     * Remove a notification from the secondary indexes.
+     * @param pushNotification The notification previously cached.
+     */
+    private void removeNotificationIndexes(PushNotification pushNotification) {
+        this.notificationTimeline.remove(FRANotificationCursor.of(pushNotification), pushNotification);
+        if(this.pendingExpirations.remove(FRANotificationCursor.expiryOf(pushNotification), pushNotification)) {
+            this.pendingCount.decrementAndGet();
+        }
+        if(pushNotification.getMessageId() != null) {
+            this.messageIdIndex.remove(pushNotification.getMessageId(), pushNotification);
+        }
+
+        String mechanismUID = pushNotification.getMechanismUID();
+        if(mechanismUID != null) {
+            this.removeMechanismNotificationIndex(mechanismUID, pushNotification);
+        }
+    }
+
+    private void removeMechanismNotificationIndex(String mechanismUID, PushNotification pushNotification) {
+        List<PushNotification> mechanismNotifications =
+                withoutEntry(this.mechanismNotificationIndex.get(mechanismUID), pushNotification);
+        if(mechanismNotifications.isEmpty()) {
+            this.mechanismNotificationIndex.remove(mechanismUID);
+        } else {
+            this.mechanismNotificationIndex.put(mechanismUID, mechanismNotifications);
+        }
+    }
 
-        boolean success = notificationData.edit()
-                .putString(pushNotification.getId(), notificationJson)
-                .commit();
+    private void clearNotificationEntries() {
+        this.notificationCache.clear();
+        this.mechanismNotificationIndex.clear();
+        this.messageIdIndex.clear();
+        this.notificationTimeline.clear();
+        this.pendingExpirations.clear();
+        this.pendingCount.set(0);
+    }
+
+    /**
+     * Start loading, deserializing and indexing all the entities on a background thread, so the
+     * first queries do not pay for it. Queries made while the warm-up is running wait for it to
+     * complete instead of loading the data again. Does nothing if the warm-up was already started.
+     */
+    public synchronized void warmUp() {
+        if(this.warmUpFuture != null) {
+            return;
+        }
 
-        if(success) {
-            if(this.notificationMap.isEmpty()) {
-                this.getAllNotifications();
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FRAWarmUp");
+                thread.setDaemon(true);
+                return thread;
             }
+        });
+        this.warmUpFuture = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Logger.debug(TAG, "Warming up storage caches...");
+                loadAccountsNow();
+                loadMechanismsNow();
+                loadNotificationsNow();
+                materializeAccounts();
+                materializeMechanisms();
+                materializeNotifications();
+                Logger.debug(TAG, "Storage caches warmed up.");
+            }
+        });
+        executor.shutdown();
+    }
 
-            this.notificationMap.put(pushNotification.getId(), pushNotification);
+    /**
+     * Wait for the background warm-up, if it is still running. Must not be called from the
+     * warm-up thread.
+     */
+    private void awaitWarmUp() {
+        Future<?> future = this.warmUpFuture;
+        if(future == null || future.isDone()) {
+            return;
         }
 
-        return success;
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The caches are loaded again on demand
+            Log.e(TAG, "Error warming up storage caches.", e.getCause());
+        }
+    }
+
+    /**
+     * Write the changes, either committing them immediately or staging them in the write-behind
+     * queue.
+     * @param changes The changes to write.
+     * @return boolean as result of the operation
+     */
+    private boolean write(FRAStorageBatch changes) {
+        if(this.writeBehindQueue != null) {
+            this.writeBehindQueue.stage(changes);
+            return true;
+        }
+        return backend.commit(changes);
+    }
+
+    /**
+     * Commit the staged writes before reading the backend directly.
+     */
+    private void awaitPendingWrites() {
+        if(this.writeBehindQueue != null && this.writeBehindQueue.hasPendingWrites()) {
+            this.writeBehindQueue.commitPending();
+        }
+    }
+
+    /**
+     * Durability barrier. Commit on the calling thread all the writes staged by the write-behind
+     * mode. Does nothing if write-behind is disabled.
+     * @return boolean as result of the operation, {@code false} if staged writes failed to commit
+     * or were dropped since the previous flush
+     */
+    public boolean flush() {
+        return this.writeBehindQueue == null || this.writeBehindQueue.flush();
+    }
+
+    /**
+     * Copy an immutable index entry adding the given element, in place of the replaced one if any.
+     */
+    private static <T> List<T> withEntry(List<T> list, T replaced, T element) {
+        List<T> copy = list == null ? new ArrayList<T>() : new ArrayList<>(list);
+        int index = replaced == null ? -1 : copy.indexOf(replaced);
+        if(index >= 0) {
+            copy.set(index, element);
+        } else {
+            copy.add(element);
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * Copy an immutable index entry removing the given element.
+     */
+    private static <T> List<T> withoutEntry(List<T> list, T element) {
+        if(list == null) {
+            return Collections.emptyList();
+        }
+        List<T> copy = new ArrayList<>(list);
+        copy.remove(element);
+        return Collections.unmodifiableList(copy);
     }
 
     @Override
     public boolean isEmpty() {
-        return accountData.getAll().isEmpty() &&
-                mechanismData.getAll().isEmpty() &&
-                notificationData.getAll().isEmpty();
+        this.awaitPendingWrites();
+        return backend.isEmpty();
     }
 
     /**
@@ -375,7 +1150,9 @@ class FRAStorageClient implements StorageClient {
      * @return The backup data.
      */
     public String getBackup(String id) {
-        return backupData.getString(id, "");
+        this.awaitPendingWrites();
+        String jsonData = backend.get(FRAStorageBackend.Table.BACKUP, id);
+        return jsonData != null ? jsonData : "";
     }
 
     /**
@@ -385,32 +1162,167 @@ class FRAStorageClient implements StorageClient {
      * @return boolean as result of the operation
      */
     public boolean setBackup(String id, String jsonData) {
-        return backupData.edit()
-                .putString(id, jsonData)
-                .commit();
+        return this.write(new FRAStorageBatch().setBackup(id, jsonData));
+    }
+
+    /**
+     * Get the payload of an account sent to the Flutter application, without its mechanisms. The
+     * payload is memoized until the account is written again.
+     * @param account the account.
+     * @return the payload, which must not be modified.
+     */
+    Map<String, Object> getPayload(@NonNull Account account) {
+        return this.accountCache.getPayload(account.getId(), account, ACCOUNT_ENCODER);
+    }
+
+    /**
+     * Get the payload of a mechanism sent to the Flutter application. The payload is memoized
+     * until the mechanism is written again.
+     * @param mechanism the mechanism.
+     * @return the payload, which must not be modified.
+     */
+    Map<String, Object> getPayload(@NonNull Mechanism mechanism) {
+        return this.mechanismCache.getPayload(mechanism.getId(), mechanism, MECHANISM_ENCODER);
+    }
+
+    /**
+     * Get the payload of a notification sent to the Flutter application. The payload is memoized
+     * until the notification is written again.
+     * @param pushNotification the notification.
+     * @return the payload, which must not be modified.
+     */
+    Map<String, Object> getPayload(@NonNull PushNotification pushNotification) {
+        return this.notificationCache.getPayload(pushNotification.getId(), pushNotification,
+                NOTIFICATION_ENCODER);
+    }
+
+    /**
+     * The feed of the changes applied to this storage client.
+     * @return the change feed.
+     */
+    FRAChangeFeed getChangeFeed() {
+        return this.changeFeed;
+    }
+
+    /**
+     * Start a batch of changes which are written with a single commit per backing file.
+     * @return an empty batch.
+     */
+    public FRAStorageBatch batch() {
+        return new FRAStorageBatch(this);
+    }
+
+    /**
+     * Write the changes staged in the batch with a single commit per backing file, or a single
+     * transaction for the SQLite backend. The in-memory caches are only updated when the commit
+     * succeeded; otherwise they are dropped and loaded again from the backend.
+     * @param batch the changes to write.
+     * @return boolean as result of the operation
+     */
+    boolean commit(FRAStorageBatch batch) {
+        if(batch.isEmpty()) {
+            return true;
+        }
+
+        if(!batch.accounts.isEmpty()) {
+            this.loadAccounts();
+        }
+        if(!batch.mechanisms.isEmpty()) {
+            this.loadMechanisms();
+        }
+        if(!batch.notifications.isEmpty()) {
+            this.loadNotifications();
+        }
+
+        synchronized (this.accountCache.getLock()) {
+            synchronized (this.mechanismCache.getLock()) {
+                synchronized (this.notificationCache.getLock()) {
+                    // Keep the batch ordered after the writes staged before it
+                    this.awaitPendingWrites();
+
+                    boolean success = backend.commit(batch);
+
+                    if(success) {
+                        for(Map.Entry<String, Account> entry : batch.accounts.entrySet()) {
+                            if(entry.getValue() != null) {
+                                this.putAccountEntry(entry.getValue());
+                            } else {
+                                this.accountCache.remove(entry.getKey());
+                                this.changeFeed.remove(FRAChangeFeed.Entity.ACCOUNT, entry.getKey());
+                            }
+                        }
+                        for(Map.Entry<String, Mechanism> entry : batch.mechanisms.entrySet()) {
+                            if(entry.getValue() != null) {
+                                boolean added = !this.mechanismCache.contains(entry.getKey());
+                                this.putMechanismEntry(entry.getValue());
+                                this.changeFeed.put(FRAChangeFeed.Entity.MECHANISM, entry.getKey(),
+                                        entry.getValue(), added);
+                            } else {
+                                this.removeMechanismEntry(entry.getKey());
+                                this.changeFeed.remove(FRAChangeFeed.Entity.MECHANISM, entry.getKey());
+                            }
+                        }
+                        for(Map.Entry<String, PushNotification> entry : batch.notifications.entrySet()) {
+                            if(entry.getValue() != null) {
+                                boolean added = !this.notificationCache.contains(entry.getKey());
+                                this.putNotificationEntry(entry.getValue());
+                                this.changeFeed.put(FRAChangeFeed.Entity.NOTIFICATION, entry.getKey(),
+                                        entry.getValue(), added);
+                            } else {
+                                this.removeNotificationEntry(entry.getKey());
+                                this.changeFeed.remove(FRAChangeFeed.Entity.NOTIFICATION, entry.getKey());
+                            }
+                        }
+                        if(!batch.notifications.isEmpty()) {
+                            this.evictNotifications();
+                        }
+                    } else {
+                        Log.e(TAG, "Error committing storage batch, reloading cached data.");
+                        this.invalidateCaches();
+                    }
+
+                    return success;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the in-memory caches and indexes, so they are loaded again from the backend. Must be
+     * called while holding the locks of the three caches.
+     */
+    private void invalidateCaches() {
+        this.accountCache.invalidate();
+        this.mechanismCache.invalidate();
+        this.mechanismUIDIndex.clear();
+        this.accountMechanismIndex.clear();
+        this.notificationCache.invalidate();
+        this.mechanismNotificationIndex.clear();
+        this.messageIdIndex.clear();
+        this.notificationTimeline.clear();
+        this.pendingExpirations.clear();
+        this.pendingCount.set(0);
+        this.changeFeed.reset(null);
     }
 
     /**
      * Remove all the stored {@link Account}, {@link Mechanism} and {@link PushNotification}
      */
-    @SuppressLint("ApplySharedPref")
     public void removeAll() {
-        accountData.edit()
-                .clear()
-                .commit();
-        mechanismData.edit()
-                .clear()
-                .commit();
-        notificationData.edit()
-                .clear()
-                .commit();
-        backupData.edit()
-                .clear()
-                .commit();
-        accountMap.clear();
-        mechanismMap.clear();
-        notificationMap.clear();
+        synchronized (this.accountCache.getLock()) {
+            synchronized (this.mechanismCache.getLock()) {
+                synchronized (this.notificationCache.getLock()) {
+                    this.awaitPendingWrites();
+                    backend.clear(FRAStorageBackend.Table.values());
+                    accountCache.clear();
+                    mechanismCache.clear();
+                    mechanismUIDIndex.clear();
+                    accountMechanismIndex.clear();
+                    this.clearNotificationEntries();
+                    this.changeFeed.reset(null);
+                }
+            }
+        }
     }
 
 }
-
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces storage writes and commits them to the {@link FRAStorageBackend} in the background,
+ * once per write window, instead of rewriting the backing files on every change.
+ * <p>
+ * Staged changes are not visible through the backend until they are committed, so callers must
+ * keep their own in-memory view and call {@link #flush()} before reading the backend directly or
+ * whenever the changes need to be durable. Changes which fail to commit are staged again and
+ * retried with the next flush, so the in-memory view of the callers stays the state to persist.
+ * After {@link #MAX_FAILED_FLUSHES} consecutive failures the changes are dropped, the
+ * {@link Listener} is notified so the callers can reload their view from the backend, and the
+ * next {@link #flush()} reports the failure.
+ */
+class FRAWriteBehindQueue {
+
+    private static final String TAG = FRAWriteBehindQueue.class.getSimpleName();
+
+    static final int MAX_FAILED_FLUSHES = 5;
+
+    /**
+     * Notified when staged changes are dropped after failing to commit.
+     */
+    interface Listener {
+        /**
+         * The changes were dropped, the backend does not contain them.
+         * Called without holding the locks of the queue.
+         */
+        void onChangesDropped();
+    }
+
+    private final FRAStorageBackend backend;
+    private final long windowMillis;
+    private final Listener listener;
+    private final ScheduledExecutorService scheduler;
+
+    //Guards the pending batch
+    private final Object lock = new Object();
+    //Serializes the commits so the backend is written in the order the changes were staged
+    private final Object commitLock = new Object();
+
+    private FRAStorageBatch pendingBatch = new FRAStorageBatch();
+    private boolean flushScheduled = false;
+    //Guarded by the commit lock
+    private int failedFlushes = 0;
+    private boolean changesDropped = false;
+
+    FRAWriteBehindQueue(FRAStorageBackend backend, long windowMillis, Listener listener) {
+        this.backend = backend;
+        this.windowMillis = windowMillis;
+        this.listener = listener;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FRAWriteBehind");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stage the changes of a batch to be committed with the next flush.
+     * @param changes the changes to write.
+     */
+    void stage(FRAStorageBatch changes) {
+        synchronized (lock) {
+            pendingBatch.merge(changes);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Whether there are staged changes which were not committed yet.
+     * @return {@code true} if a flush would write anything.
+     */
+    boolean hasPendingWrites() {
+        synchronized (lock) {
+            return !pendingBatch.isEmpty();
+        }
+    }
+
+    /**
+     * Commit all staged changes on the calling thread. When this method returns, every change
+     * staged before the call has been written to the backend, unless the commit failed.
+     * @return {@code true} if the commit succeeded, {@code false} if the changes are kept to be
+     * retried, or if changes were dropped since the previous flush.
+     */
+    boolean flush() {
+        boolean success = commitPending();
+        synchronized (commitLock) {
+            // Report the dropped changes once, to the first flush after they were dropped
+            if (changesDropped) {
+                changesDropped = false;
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Commit all staged changes on the calling thread, without reporting the changes dropped
+     * before the call.
+     * @return {@code true} if the commit succeeded.
+     */
+    boolean commitPending() {
+        boolean success;
+        boolean dropped = false;
+        synchronized (commitLock) {
+            FRAStorageBatch batch;
+            synchronized (lock) {
+                if (pendingBatch.isEmpty()) {
+                    return true;
+                }
+                batch = pendingBatch;
+                pendingBatch = new FRAStorageBatch();
+            }
+
+            success = backend.commit(batch);
+            if (success) {
+                Logger.debug(TAG, "Committed pending storage writes.");
+                failedFlushes = 0;
+            } else if (++failedFlushes < MAX_FAILED_FLUSHES) {
+                Log.e(TAG, "Error committing pending storage writes, retrying with the next flush.");
+                // Keep the failed changes, the ones staged meanwhile take precedence
+                synchronized (lock) {
+                    batch.merge(pendingBatch);
+                    pendingBatch = batch;
+                    scheduleFlush();
+                }
+            } else {
+                Log.e(TAG, "Error committing pending storage writes after " + failedFlushes
+                        + " attempts, dropping them.");
+                failedFlushes = 0;
+                changesDropped = true;
+                dropped = true;
+            }
+        }
+
+        if (dropped) {
+            listener.onChangesDropped();
+        }
+        return success;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    flushScheduled = false;
+                }
+                commitPending();
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+}
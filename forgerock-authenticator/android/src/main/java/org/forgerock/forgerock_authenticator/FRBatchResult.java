@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.forgerock_authenticator;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * Runs the operations of a {@code batch} call one after another, and replies to the call once all
+ * of them completed. Each operation is dispatched once the previous one replied, whatever the
+ * thread or queue it runs on, so the operations run in the order of the batch; the reply keeps
+ * the same order.
+ * <p>
+ * Each operation result is a map with a {@code success} flag, and either its {@code result} or the
+ * {@code code}, {@code message} and {@code details} of its error.
+ */
+class FRBatchResult {
+
+  /**
+   * Runs a single operation of the batch.
+   */
+  interface Dispatcher {
+    /**
+     * Run an operation, on any thread.
+     * @param operation the operation to run.
+     * @param result the result of the operation, which must be replied to exactly once.
+     */
+    void dispatch(@NonNull MethodCall operation, @NonNull Result result);
+  }
+
+  private final Result result;
+  private final Object[] results;
+  private int remaining;
+
+  FRBatchResult(int count, @NonNull Result result) {
+    this.result = result;
+    this.results = new Object[count];
+    this.remaining = count;
+    if (count == 0) {
+      result.success(new ArrayList<>());
+    }
+  }
+
+  /**
+   * Run the operations in order. The operations must have been counted in the constructor.
+   * @param operations the operations of the batch.
+   * @param dispatcher runs each operation.
+   */
+  void run(@NonNull List<MethodCall> operations, @NonNull Dispatcher dispatcher) {
+    runFrom(0, operations, dispatcher);
+  }
+
+  private void runFrom(final int index, final List<MethodCall> operations,
+                       final Dispatcher dispatcher) {
+    if (index >= operations.size()) {
+      return;
+    }
+    Result operationResult = get(index, new Runnable() {
+      @Override
+      public void run() {
+        runFrom(index + 1, operations, dispatcher);
+      }
+    });
+    try {
+      dispatcher.dispatch(operations.get(index), operationResult);
+    } catch (RuntimeException e) {
+      operationResult.error("AUTHENTICATOR_EXCEPTION", e.getLocalizedMessage(), null);
+    }
+  }
+
+  /**
+   * Get the result of the operation at the given position. Only the first reply of an operation
+   * is kept.
+   * @param index the position of the operation in the batch.
+   * @param next run after the first reply of the operation, or {@code null}.
+   * @return the result of the operation.
+   */
+  Result get(final int index, @Nullable final Runnable next) {
+    return new Result() {
+      @Override
+      public void success(@Nullable Object value) {
+        Map<String, Object> operationResult = new HashMap<>();
+        operationResult.put("success", true);
+        operationResult.put("result", value);
+        if (complete(index, operationResult) && next != null) {
+          next.run();
+        }
+      }
+
+      @Override
+      public void error(@NonNull String errorCode, @Nullable String errorMessage,
+                        @Nullable Object errorDetails) {
+        Map<String, Object> operationResult = new HashMap<>();
+        operationResult.put("success", false);
+        operationResult.put("code", errorCode);
+        operationResult.put("message", errorMessage);
+        operationResult.put("details", errorDetails);
+        if (complete(index, operationResult) && next != null) {
+          next.run();
+        }
+      }
+
+      @Override
+      public void notImplemented() {
+        error("NOT_IMPLEMENTED", "Method not supported in a batch.", null);
+      }
+    };
+  }
+
+  /**
+   * Record the result of an operation, and reply to the batch call if it was the last one.
+   * @return {@code true} if it was the first reply of the operation.
+   */
+  private boolean complete(int index, Map<String, Object> operationResult) {
+    List<Object> reply;
+    synchronized (this) {
+      if (results[index] != null) {
+        return false;
+      }
+      results[index] = operationResult;
+      if (--remaining > 0) {
+        return true;
+      }
+      reply = Arrays.asList(results);
+    }
+    result.success(reply);
+    return true;
+  }
+
+}
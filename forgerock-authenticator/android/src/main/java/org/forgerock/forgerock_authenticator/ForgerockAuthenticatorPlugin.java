@@ -19,6 +19,10 @@ import androidx.fragment.app.FragmentActivity;
 
 import org.forgerock.android.auth.FRAClientWrapper;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
@@ -39,6 +43,8 @@ public class ForgerockAuthenticatorPlugin implements FlutterPlugin, MethodCallHa
   /// This local reference serves to register the plugin with the Flutter Engine and unregister it
   /// when the Flutter Engine is detached from the Activity
   private MethodChannel channel;
+  private EventChannel changesChannel;
+  private EventChannel metricsChannel;
   private FRAClientWrapper fraClientWrapper;
   private FragmentActivity activity;
   private ActivityPluginBinding activityBinding;
@@ -48,9 +54,13 @@ public class ForgerockAuthenticatorPlugin implements FlutterPlugin, MethodCallHa
   private String initialLink;
   private String latestLink;
   private boolean initialIntent = true;
+  private boolean background = false;
 
   private static final String CHANNEL_NAME = "forgerock_authenticator";
   private static final String EVENTS_CHANNEL = "forgerock_authenticator/events";
+  private static final String CHANGES_CHANNEL = "forgerock_authenticator/changes";
+  private static final String METRICS_CHANNEL = "forgerock_authenticator/metrics";
+  private static final int DEFAULT_METRICS_INTERVAL_SECONDS = 60;
 
   @SuppressWarnings("unused")
   public ForgerockAuthenticatorPlugin() { }
@@ -65,14 +75,52 @@ public class ForgerockAuthenticatorPlugin implements FlutterPlugin, MethodCallHa
     this.channel = new MethodChannel(messenger, CHANNEL_NAME);
     this.channel.setMethodCallHandler(this);
     this.fraClientWrapper = FRAClientWrapper.init(context);
+    this.fraClientWrapper.warmUpStorage();
+
+    // The headless engine delivering the push notifications in the background only serves the
+    // method calls, the notifications and events are sent to the application engine
+    this.background = FRAClientWrapper.isAttachingBackgroundEngine();
+    if (this.background) {
+      return;
+    }
     this.fraClientWrapper.setChannel(channel);
 
     final EventChannel eventChannel = new EventChannel(messenger, EVENTS_CHANNEL);
     eventChannel.setStreamHandler(this);
+
+    this.changesChannel = new EventChannel(messenger, CHANGES_CHANNEL);
+    final FRAClientWrapper fraClientWrapper = this.fraClientWrapper;
+    this.changesChannel.setStreamHandler(new EventChannel.StreamHandler() {
+      @Override
+      public void onListen(Object arguments, EventChannel.EventSink eventSink) {
+        fraClientWrapper.setChangeSink(eventSink);
+      }
+
+      @Override
+      public void onCancel(Object arguments) {
+        fraClientWrapper.setChangeSink(null);
+      }
+    });
+
+    this.metricsChannel = new EventChannel(messenger, METRICS_CHANNEL);
+    this.metricsChannel.setStreamHandler(new EventChannel.StreamHandler() {
+      @Override
+      public void onListen(Object arguments, EventChannel.EventSink eventSink) {
+        int intervalSeconds = arguments instanceof Integer
+                ? (Integer) arguments : DEFAULT_METRICS_INTERVAL_SECONDS;
+        fraClientWrapper.setMetricsSink(eventSink, intervalSeconds);
+      }
+
+      @Override
+      public void onCancel(Object arguments) {
+        fraClientWrapper.setMetricsSink(null, 0);
+      }
+    });
   }
 
   @Override
-  public void onMethodCall(@NonNull MethodCall call, @NonNull Result result) {
+  public void onMethodCall(@NonNull final MethodCall call, @NonNull Result channelResult) {
+    final Result result = this.fraClientWrapper.meter(call.method, channelResult);
     switch (call.method) {
       case "getInitialLink":
         result.success(this.initialLink);
@@ -80,161 +128,279 @@ public class ForgerockAuthenticatorPlugin implements FlutterPlugin, MethodCallHa
       case "getLatestLink":
         result.success(this.latestLink);
         break;
+      case "registerBackgroundMessageHandler": {
+        Number dispatcherHandle = call.argument("dispatcherHandle");
+        Number handlerHandle = call.argument("handlerHandle");
+        if (dispatcherHandle == null || handlerHandle == null) {
+          result.error("PLATFORM_ARGUMENT_EXCEPTION", "The background callback handles are missing.", null);
+        } else {
+          this.fraClientWrapper.setBackgroundMessageHandler(dispatcherHandle.longValue(),
+                  handlerHandle.longValue(), result);
+        }
+        break;
+      }
+      case "batch": {
+        List<Map<String, Object>> operations = call.argument("operations");
+        onBatchMethodCall(this.fraClientWrapper, operations, result);
+        break;
+      }
+      case "getMetrics": {
+        boolean reset = Boolean.TRUE.equals(call.argument("reset"));
+        result.success(this.fraClientWrapper.getMetrics(reset));
+        break;
+      }
+      case "performPushAuthenticationWithBiometric": {
+        String notificationId = call.argument("notificationId");
+        String title = call.argument("title");
+        boolean allowDeviceCredentials = Boolean.TRUE.equals(call.argument("allowDeviceCredentials"));
+        boolean accept = Boolean.TRUE.equals(call.argument("accept"));
+        FragmentActivity fragmentActivity = (FragmentActivity) activity;
+        this.fraClientWrapper.performPushAuthenticationWithBiometric(notificationId, title,
+                allowDeviceCredentials, accept, fragmentActivity, result);
+        break;
+      }
+      case "disableScreenshot": {
+        if(isActivityAvailable(result)) {
+          this.activity.getWindow().addFlags(WindowManager.LayoutParams.FLAG_SECURE);
+          result.success(true);
+        }
+        break;
+      }
+      case "enableScreenshot": {
+        if(isActivityAvailable(result)) {
+          this.activity.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_SECURE);
+          result.success(true);
+        }
+        break;
+      }
+      default: {
+        // Storage, crypto and network operations run on the worker threads
+        final FRAClientWrapper fraClientWrapper = this.fraClientWrapper;
+        fraClientWrapper.execute(call.method, getResource(call), result, new FRAClientWrapper.ChannelOperation() {
+          @Override
+          public void run(Result workerResult) {
+            onWorkerMethodCall(fraClientWrapper, call, workerResult);
+          }
+        });
+        break;
+      }
+    }
+  }
+
+  /**
+   * Get the resource a channel operation is serialized with. Operations on different resources
+   * can run in parallel. Accounts, mechanisms and notifications are deleted together, so all the
+   * storage operations share one resource; only the OATH codes of different mechanisms are
+   * generated in parallel.
+   */
+  private static String getResource(MethodCall call) {
+    switch (call.method) {
+      case "getOathTokenCode":
+        return "oath:" + call.argument("mechanismId");
+      default:
+        return "storage";
+    }
+  }
+
+  private static MethodCall toMethodCall(Map<String, Object> operation) {
+    Object method = operation != null ? operation.get("method") : null;
+    return new MethodCall(method instanceof String ? (String) method : "",
+            operation != null ? operation.get("arguments") : null);
+  }
+
+  /**
+   * Run the operations of a batch one after another, and reply with all their results at once.
+   * Each operation runs on the worker threads, serialized with its own resource like a single
+   * call, and is only started once the previous one replied.
+   */
+  private void onBatchMethodCall(final FRAClientWrapper fraClientWrapper,
+                                 List<Map<String, Object>> operations, Result result) {
+    if (operations == null) {
+      result.error("PLATFORM_ARGUMENT_EXCEPTION", "The batch operations are missing.", null);
+      return;
+    }
+
+    List<MethodCall> calls = new ArrayList<>();
+    for (Map<String, Object> operation : operations) {
+      calls.add(toMethodCall(operation));
+    }
+    new FRBatchResult(calls.size(), result).run(calls, new FRBatchResult.Dispatcher() {
+      @Override
+      public void dispatch(@NonNull final MethodCall operation, @NonNull Result operationResult) {
+        // Count the calls and errors of each operation, as for a single call
+        fraClientWrapper.execute(operation.method, getResource(operation),
+                fraClientWrapper.meter(operation.method, operationResult),
+                new FRAClientWrapper.ChannelOperation() {
+          @Override
+          public void run(Result workerResult) {
+            onWorkerMethodCall(fraClientWrapper, operation, workerResult);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Handle the channel calls which run on the worker threads. The result can be completed from
+   * any thread.
+   */
+  private void onWorkerMethodCall(FRAClientWrapper fraClientWrapper, MethodCall call, Result result) {
+    switch (call.method) {
       case "start":
-        this.fraClientWrapper.start(result, permissionListener);
+        fraClientWrapper.start(result, permissionListener);
         break;
       case "createMechanismFromUri":
         String uri = call.argument("uri");
-        this.fraClientWrapper.createMechanismFromUri(uri, result);
+        fraClientWrapper.createMechanismFromUri(uri, result);
         break;
       case "getAllAccounts":
-        this.fraClientWrapper.getAllAccounts(result);
+        fraClientWrapper.getAllAccounts(result);
         break;
       case "getOathTokenCode": {
         String mechanismId = call.argument("mechanismId");
-        this.fraClientWrapper.getOathTokenCode(mechanismId, result);
+        fraClientWrapper.getOathTokenCode(mechanismId, result);
         break;
       }
       case "updateAccount": {
         String accountJson = call.argument("accountJson");
-        this.fraClientWrapper.updateAccount(accountJson, result);
+        fraClientWrapper.updateAccount(accountJson, result);
         break;
       }
       case "removeAccount": {
         String accountId = call.argument("accountId");
-        this.fraClientWrapper.removeAccount(accountId, result);
+        fraClientWrapper.removeAccount(accountId, result);
         break;
       }
       case "lockAccount": {
         String accountId = call.argument("accountId");
         String policyName = call.argument("policyName");
-        this.fraClientWrapper.lockAccount(accountId, policyName, result);
+        fraClientWrapper.lockAccount(accountId, policyName, result);
         break;
       }
       case "unlockAccount": {
         String accountId = call.argument("accountId");
-        this.fraClientWrapper.unlockAccount(accountId, result);
+        fraClientWrapper.unlockAccount(accountId, result);
         break;
       }
       case "removeMechanism": {
         String mechanismUID = call.argument("mechanismUID");
-        this.fraClientWrapper.removeMechanism(mechanismUID, result);
+        fraClientWrapper.removeMechanism(mechanismUID, result);
         break;
       }
       case "removeAllNotifications": {
-        this.fraClientWrapper.removeAllNotifications(result);
+        fraClientWrapper.removeAllNotifications(result);
         break;
       }
       case "getNotificationsByAccountId": {
         String accountId = call.argument("accountId");
-        this.fraClientWrapper.getAllNotificationsByAccountId(accountId, result);
+        fraClientWrapper.getAllNotificationsByAccountId(accountId, result);
         break;
       }
       case "getAllNotifications":
-        this.fraClientWrapper.getAllNotifications(result);
+        fraClientWrapper.getAllNotifications(result);
+        break;
+      case "getPendingNotificationsCount":
+        fraClientWrapper.getPendingNotificationsCount(result);
+        break;
+      case "getNotificationsPage": {
+        Map<String, Object> olderThan = call.argument("olderThan");
+        Map<String, Object> newerThan = call.argument("newerThan");
+        Integer limit = call.argument("limit");
+        String mechanismUID = call.argument("mechanismUID");
+        boolean pendingOnly = Boolean.TRUE.equals(call.argument("pendingOnly"));
+        String pushType = call.argument("pushType");
+        fraClientWrapper.getNotificationsPage(olderThan, newerThan,
+                limit != null ? limit : 0, mechanismUID, pendingOnly, pushType, result);
         break;
+      }
       case "getNotification": {
         String notificationId = call.argument("notificationId");
-        this.fraClientWrapper.getNotification(notificationId, result);
+        fraClientWrapper.getNotification(notificationId, result);
         break;
       }
       case "getAllMechanismsGroupByUID":
-        this.fraClientWrapper.getAllMechanismsGroupByUID(result);
+        fraClientWrapper.getAllMechanismsGroupByUID(result);
         break;
       case "handleMessage": {
         String messageId = call.argument("messageId");
         String message = call.argument("message");
-        this.fraClientWrapper.handleMessage(messageId, message, result);
+        fraClientWrapper.handleMessage(messageId, message, result);
         break;
       }
       case "performPushAuthentication": {
         String notificationId = call.argument("notificationId");
         boolean accept = Boolean.TRUE.equals(call.argument("accept"));
-        this.fraClientWrapper.performPushAuthentication(notificationId, accept, result);
+        fraClientWrapper.performPushAuthentication(notificationId, accept, result);
         break;
       }
       case "performPushAuthenticationWithChallenge": {
         String notificationId = call.argument("notificationId");
         String challengeResponse = call.argument("challengeResponse");
         boolean accept = Boolean.TRUE.equals(call.argument("accept"));
-        this.fraClientWrapper.performPushAuthenticationWithChallenge(notificationId,
+        fraClientWrapper.performPushAuthenticationWithChallenge(notificationId,
                 challengeResponse, accept, result);
         break;
       }
-      case "performPushAuthenticationWithBiometric": {
-        String notificationId = call.argument("notificationId");
-        String title = call.argument("title");
-        boolean allowDeviceCredentials = Boolean.TRUE.equals(call.argument("allowDeviceCredentials"));
-        boolean accept = Boolean.TRUE.equals(call.argument("accept"));
-        FragmentActivity fragmentActivity = (FragmentActivity) activity;
-        this.fraClientWrapper.performPushAuthenticationWithBiometric(notificationId, title,
-                allowDeviceCredentials, accept, fragmentActivity, result);
-        break;
-      }
       case "setStoredAccount": {
         String accountJson = call.argument("accountJson");
-        this.fraClientWrapper.setStoredAccount(accountJson, result);
+        fraClientWrapper.setStoredAccount(accountJson, result);
         break;
       }
       case "setStoredMechanism":
         String mechanismJson = call.argument("mechanismJson");
-        this.fraClientWrapper.setStoredMechanism(mechanismJson, result);
+        fraClientWrapper.setStoredMechanism(mechanismJson, result);
         break;
       case "setStoredNotification":
         String notificationJson = call.argument("notificationJson");
-        this.fraClientWrapper.setStoredNotification(notificationJson, result);
+        fraClientWrapper.setStoredNotification(notificationJson, result);
         break;
       case "getStoredAccount": {
         String accountId = call.argument("accountId");
-        this.fraClientWrapper.getStoredAccount(accountId, result);
+        fraClientWrapper.getStoredAccount(accountId, result);
         break;
       }
       case "getStoredMechanism": {
         String mechanismId = call.argument("mechanismId");
-        this.fraClientWrapper.getStoredMechanism(mechanismId, result);
+        fraClientWrapper.getStoredMechanism(mechanismId, result);
         break;
       }
       case "getStoredMechanismByUUID": {
         String mechanismId = call.argument("mechanismUID");
-        this.fraClientWrapper.getStoredMechanismByUUID(mechanismId, result);
+        fraClientWrapper.getStoredMechanismByUUID(mechanismId, result);
         break;
       }
       case "getStoredNotification": {
         String notificationId = call.argument("notificationId");
-        this.fraClientWrapper.getStoredNotification(notificationId, result);
+        fraClientWrapper.getStoredNotification(notificationId, result);
+        break;
+      }
+      case "exportStoredData":
+        fraClientWrapper.exportStoredData(result);
+        break;
+      case "importStoredData": {
+        List<String> accounts = call.argument("accounts");
+        List<String> mechanisms = call.argument("mechanisms");
+        List<String> notifications = call.argument("notifications");
+        fraClientWrapper.importStoredData(accounts, mechanisms, notifications, result);
         break;
       }
       case "deleteStoredAccount": {
         String accountId = call.argument("accountId");
-        this.fraClientWrapper.deleteStoredAccount(accountId, result);
+        fraClientWrapper.deleteStoredAccount(accountId, result);
         break;
       }
       case "removeAllData":
-        this.fraClientWrapper.removeAllData();
+        fraClientWrapper.removeAllData(result);
         break;
       case "getBackup": {
         String id = call.argument("id");
-        this.fraClientWrapper.getBackup(id, result);
+        fraClientWrapper.getBackup(id, result);
         break;
       }
       case "setBackup": {
         String id = call.argument("id");
         String data = call.argument("data");
-        this.fraClientWrapper.setBackup(id, data, result);
-        break;
-      }
-      case "disableScreenshot": {
-        if(isActivityAvailable(result)) {
-          this.activity.getWindow().addFlags(WindowManager.LayoutParams.FLAG_SECURE);
-          result.success(true);
-        }
-        break;
-      }
-      case "enableScreenshot": {
-        if(isActivityAvailable(result)) {
-          this.activity.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_SECURE);
-          result.success(true);
-        }
+        fraClientWrapper.setBackup(id, data, result);
         break;
       }
       default:
@@ -257,6 +423,16 @@ public class ForgerockAuthenticatorPlugin implements FlutterPlugin, MethodCallHa
 
   @Override
   public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+    this.fraClientWrapper.flushStorage();
+    if (!this.background) {
+      this.fraClientWrapper.setChannel(null);
+      this.fraClientWrapper.setChangeSink(null);
+      this.fraClientWrapper.setMetricsSink(null, 0);
+      this.changesChannel.setStreamHandler(null);
+      this.changesChannel = null;
+      this.metricsChannel.setStreamHandler(null);
+      this.metricsChannel = null;
+    }
     this.channel.setMethodCallHandler(null);
     this.channel = null;
     this.fraClientWrapper = null;
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public class FRAPushOutboxTest {
+
+    private SharedPreferences outboxData;
+    private PushNotification pushNotification;
+    private TestTransport transport;
+    private TestNetworkMonitor networkMonitor;
+    private TestScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        outboxData = context.getSharedPreferences(
+                FRAPushOutbox.FORGEROCK_SHARED_PREFERENCES_DATA_OUTBOX, Context.MODE_PRIVATE);
+        outboxData.edit().clear().commit();
+
+        Calendar timeAdded = Calendar.getInstance();
+        Calendar timeExpired = Calendar.getInstance();
+        timeExpired.add(Calendar.HOUR, 1);
+        pushNotification = PushNotification.builder()
+                .setMechanismUID("mechanism")
+                .setMessageId("message")
+                .setChallenge("challenge")
+                .setAmlbCookie("cookie")
+                .setTimeAdded(timeAdded)
+                .setTimeExpired(timeExpired)
+                .setTtl(3600)
+                .setPending(true)
+                .setApproved(false)
+                .build();
+
+        transport = new TestTransport(pushNotification);
+        networkMonitor = new TestNetworkMonitor();
+        scheduler = new TestScheduler();
+    }
+
+    @Test
+    public void testBackoffDoublesBetweenAttempts() {
+        transport.failWith(new IOException("Network unreachable"));
+        FRAPushOutbox outbox = newOutbox();
+        TestListener listener = new TestListener();
+
+        outbox.submit(pushNotification, true, null, listener);
+        assertEquals(1, listener.queued.get());
+
+        for (int attempts = 1; attempts < 4; attempts++) {
+            long delay = scheduler.runNext();
+            long base = FRAPushOutbox.getBaseBackoff(attempts);
+            assertEquals(FRAPushOutbox.INITIAL_BACKOFF << (attempts - 1), base);
+            assertTrue("Delay " + delay + " before attempt " + (attempts + 1),
+                    delay >= base && delay <= base + base / 5);
+            assertEquals(attempts + 1, transport.sent.size());
+        }
+        assertEquals(FRAPushOutbox.MAX_BACKOFF, FRAPushOutbox.getBaseBackoff(20));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        transport.failWith(new IOException("Network unreachable"));
+        FRAPushOutbox outbox = newOutbox();
+        TestListener listener = new TestListener();
+
+        outbox.submit(pushNotification, true, null, listener);
+        while (!scheduler.tasks.isEmpty()) {
+            scheduler.runNext();
+        }
+
+        assertEquals(FRAPushOutbox.MAX_ATTEMPTS, transport.sent.size());
+        assertTrue(outboxData.getAll().isEmpty());
+        // The listener was notified once, when the response was queued
+        assertEquals(1, listener.queued.get());
+        assertEquals(0, listener.failed.get());
+        assertFalse(networkMonitor.registered);
+    }
+
+    @Test
+    public void testRejectedResponseIsNotRetried() {
+        transport.failWith(new Exception("Communication with server returned 401 code."));
+        FRAPushOutbox outbox = newOutbox();
+        TestListener listener = new TestListener();
+
+        outbox.submit(pushNotification, true, null, listener);
+
+        assertEquals(1, listener.failed.get());
+        assertEquals(1, transport.sent.size());
+        assertTrue(outboxData.getAll().isEmpty());
+        assertTrue(scheduler.tasks.isEmpty());
+    }
+
+    @Test
+    public void testRetryableErrors() {
+        assertTrue(FRAPushOutbox.isRetryable(new IOException("Connection reset")));
+        assertTrue(FRAPushOutbox.isRetryable(new Exception(new IOException("Timeout"))));
+        assertTrue(FRAPushOutbox.isRetryable(new RuntimeException(
+                new java.util.concurrent.TimeoutException())));
+        assertTrue(FRAPushOutbox.isRetryable(new Exception("Communication with server returned 503 code.")));
+        assertFalse(FRAPushOutbox.isRetryable(new Exception("Communication with server returned 400 code.")));
+        assertFalse(FRAPushOutbox.isRetryable(new IllegalStateException("Notification expired.")));
+    }
+
+    @Test
+    public void testSubmitsAreDeduplicatedByNotificationId() {
+        transport.hold();
+        FRAPushOutbox outbox = newOutbox();
+        TestListener first = new TestListener();
+        TestListener same = new TestListener();
+        TestListener different = new TestListener();
+
+        outbox.submit(pushNotification, true, null, first);
+        outbox.submit(pushNotification, true, null, same);
+        outbox.submit(pushNotification, false, null, different);
+
+        assertEquals(1, different.failed.get());
+        assertEquals(1, transport.sent.size());
+
+        transport.complete(null);
+        assertEquals(1, first.succeeded.get());
+        assertEquals(1, same.succeeded.get());
+        assertEquals(1, transport.sent.size());
+        assertTrue(outboxData.getAll().isEmpty());
+    }
+
+    @Test
+    public void testReplaysPersistedResponsesAfterRestart() {
+        transport.failWith(new IOException("Network unreachable"));
+        newOutbox().submit(pushNotification, false, null, new TestListener());
+        assertFalse(outboxData.getAll().isEmpty());
+
+        // A new process, reading the same outbox file
+        TestTransport restartedTransport = new TestTransport(pushNotification);
+        TestNetworkMonitor restartedMonitor = new TestNetworkMonitor();
+        TestScheduler restartedScheduler = new TestScheduler();
+        restartedScheduler.now = scheduler.now;
+        FRAPushOutbox restarted = new FRAPushOutbox(outboxData, restartedTransport,
+                restartedMonitor, restartedScheduler);
+        restarted.resume();
+        assertTrue(restartedMonitor.registered);
+
+        restartedMonitor.becomeAvailable();
+        while (!restartedScheduler.tasks.isEmpty()) {
+            restartedScheduler.runNext();
+        }
+
+        assertEquals(Collections.singletonList(false), restartedTransport.sent);
+        assertTrue(outboxData.getAll().isEmpty());
+        assertFalse(restartedMonitor.registered);
+    }
+
+    @Test
+    public void testResumeWithEmptyOutboxDoesNothing() {
+        FRAPushOutbox outbox = newOutbox();
+        outbox.resume();
+        assertTrue(scheduler.tasks.isEmpty());
+        assertFalse(networkMonitor.registered);
+        assertEquals(0, transport.lookups.get());
+    }
+
+    @Test
+    public void testNetworkIsMonitoredOnlyWhileResponsesAreQueued() {
+        FRAPushOutbox outbox = newOutbox();
+        outbox.submit(pushNotification, true, null, new TestListener());
+        assertEquals(0, networkMonitor.registrations);
+
+        transport.failWith(new IOException("Network unreachable"));
+        outbox.submit(pushNotification, true, null, new TestListener());
+        assertTrue(networkMonitor.registered);
+
+        transport.failWith(null);
+        networkMonitor.becomeAvailable();
+        scheduler.runNext();
+        assertFalse(networkMonitor.registered);
+        assertEquals(1, networkMonitor.registrations);
+    }
+
+    @Test
+    public void testConcurrentDrainsWhenNetworkIsBackSendOnce() throws Exception {
+        transport.failWith(new IOException("Network unreachable"));
+        final FRAPushOutbox outbox = newOutbox();
+        outbox.submit(pushNotification, true, "42", new TestListener());
+
+        transport.failWith(null);
+        // Both drains look up the notification before either of them sends it
+        transport.lookupBarrier = new CyclicBarrier(2);
+        networkMonitor.becomeAvailable();
+
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    outbox.drain();
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, transport.sent.size());
+        assertEquals("42", transport.challengeResponse);
+        assertTrue(outboxData.getAll().isEmpty());
+        assertFalse(networkMonitor.registered);
+    }
+
+    private FRAPushOutbox newOutbox() {
+        return new FRAPushOutbox(outboxData, transport, networkMonitor, scheduler);
+    }
+
+    private static class TestTransport implements FRAPushOutbox.Transport {
+        private final PushNotification pushNotification;
+        final List<Boolean> sent = Collections.synchronizedList(new ArrayList<Boolean>());
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile String challengeResponse;
+        volatile CyclicBarrier lookupBarrier;
+        private volatile Exception error;
+        private volatile boolean held;
+        private FRAListener<Void> heldListener;
+
+        TestTransport(PushNotification pushNotification) {
+            this.pushNotification = pushNotification;
+        }
+
+        void failWith(Exception error) {
+            this.error = error;
+        }
+
+        void hold() {
+            this.held = true;
+        }
+
+        void complete(Exception error) {
+            if (error == null) {
+                heldListener.onSuccess(null);
+            } else {
+                heldListener.onException(error);
+            }
+        }
+
+        @Override
+        public PushNotification getNotification(String notificationId) {
+            lookups.incrementAndGet();
+            CyclicBarrier barrier = lookupBarrier;
+            if (barrier != null) {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return pushNotification.getId().equals(notificationId) ? pushNotification : null;
+        }
+
+        @Override
+        public void send(PushNotification pushNotification, boolean accept,
+                         String challengeResponse, FRAListener<Void> listener) {
+            sent.add(accept);
+            this.challengeResponse = challengeResponse;
+            if (held) {
+                heldListener = listener;
+            } else if (error != null) {
+                listener.onException(error);
+            } else {
+                listener.onSuccess(null);
+            }
+        }
+    }
+
+    private static class TestNetworkMonitor implements FRAPushOutbox.NetworkMonitor {
+        boolean registered;
+        int registrations;
+        private Runnable onAvailable;
+
+        @Override
+        public void register(Runnable onAvailable) {
+            this.onAvailable = onAvailable;
+            registered = true;
+            registrations++;
+        }
+
+        @Override
+        public void unregister() {
+            onAvailable = null;
+            registered = false;
+        }
+
+        void becomeAvailable() {
+            if (onAvailable != null) {
+                onAvailable.run();
+            }
+        }
+    }
+
+    /**
+     * Runs the scheduled tasks on demand, advancing the clock to their time.
+     */
+    private static class TestScheduler implements FRAPushOutbox.Scheduler {
+        final List<Long> tasksDelay = new ArrayList<>();
+        final List<Runnable> tasks = new ArrayList<>();
+        long now = 1_000_000L;
+
+        @Override
+        public synchronized long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public synchronized void schedule(Runnable task, long delayMillis) {
+            tasks.add(task);
+            tasksDelay.add(delayMillis);
+        }
+
+        /**
+         * Run the first scheduled task.
+         * @return the delay it was scheduled with.
+         */
+        long runNext() {
+            Runnable task;
+            long delay;
+            synchronized (this) {
+                task = tasks.remove(0);
+                delay = tasksDelay.remove(0);
+                now += delay;
+            }
+            task.run();
+            return delay;
+        }
+    }
+
+    private static class TestListener implements FRAPushOutbox.Listener {
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger queued = new AtomicInteger();
+
+        @Override
+        public void onSuccess(Void result) {
+            succeeded.incrementAndGet();
+        }
+
+        @Override
+        public void onException(Exception e) {
+            failed.incrementAndGet();
+        }
+
+        @Override
+        public void onQueued(Exception e) {
+            queued.incrementAndGet();
+        }
+    }
+
+}
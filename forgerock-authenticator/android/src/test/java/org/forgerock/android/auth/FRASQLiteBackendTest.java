@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class FRASQLiteBackendTest {
+
+    private static final String DATABASE_NAME = "test.authenticator.db";
+
+    private Context context;
+    private TestEncryptor encryptor;
+    private TestPreferencesBackend preferences;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+        encryptor = new TestEncryptor();
+        preferences = new TestPreferencesBackend(
+                getSharedPreferences("account"), getSharedPreferences("mechanism"),
+                getSharedPreferences("notification"), getSharedPreferences("backup"));
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void testMigratesSharedPreferencesOnFirstUse() {
+        Account account = account("alice");
+        preferences.commit(new FRAStorageBatch().setAccount(account));
+
+        FRASQLiteBackend backend = newBackend();
+        Map<String, String> accounts = backend.getAll(FRAStorageBackend.Table.ACCOUNT);
+
+        assertEquals(1, accounts.size());
+        assertTrue(accounts.containsKey(account.getId()));
+        assertTrue(preferences.isEmpty());
+        backend.close();
+    }
+
+    @Test
+    public void testMigrationRunsAgainAfterFailedCommit() {
+        Account account = account("alice");
+        preferences.commit(new FRAStorageBatch().setAccount(account));
+
+        // The database cannot be written, the SharedPreferences files are used instead
+        encryptor.fail = true;
+        FRASQLiteBackend backend = newBackend();
+        assertTrue(backend.getAll(FRAStorageBackend.Table.ACCOUNT).containsKey(account.getId()));
+        assertFalse(preferences.isEmpty());
+        backend.close();
+
+        // Next start
+        encryptor.fail = false;
+        backend = newBackend();
+        assertTrue(backend.getAll(FRAStorageBackend.Table.ACCOUNT).containsKey(account.getId()));
+        assertTrue(preferences.isEmpty());
+        backend.close();
+    }
+
+    @Test
+    public void testCommittedMigrationIsNotImportedAgain() {
+        Account alice = account("alice");
+        Account bob = account("bob");
+        preferences.commit(new FRAStorageBatch().setAccount(alice));
+
+        // The migration commits, but the SharedPreferences files cannot be cleared
+        preferences.failClear = true;
+        FRASQLiteBackend backend = newBackend();
+        assertTrue(backend.getAll(FRAStorageBackend.Table.ACCOUNT).containsKey(alice.getId()));
+        assertFalse(preferences.isEmpty());
+
+        // Newer changes, which the stale SharedPreferences data must not overwrite
+        assertTrue(backend.commit(new FRAStorageBatch().removeAccount(alice).setAccount(bob)));
+        backend.close();
+
+        // Next start
+        preferences.failClear = false;
+        backend = newBackend();
+        Map<String, String> accounts = backend.getAll(FRAStorageBackend.Table.ACCOUNT);
+        assertEquals(1, accounts.size());
+        assertTrue(accounts.containsKey(bob.getId()));
+        assertNull(backend.get(FRAStorageBackend.Table.ACCOUNT, alice.getId()));
+        assertTrue(preferences.isEmpty());
+        backend.close();
+    }
+
+    @Test
+    public void testMigrateBackMovesDataToSharedPreferences() {
+        Account alice = account("alice");
+        FRASQLiteBackend backend = newBackend();
+        assertTrue(backend.commit(new FRAStorageBatch().setAccount(alice)));
+
+        assertTrue(backend.migrateBack());
+        assertTrue(preferences.getAll(FRAStorageBackend.Table.ACCOUNT).containsKey(alice.getId()));
+        backend.close();
+    }
+
+    @Test
+    public void testMigrateBackRefusesWhenBothContainData() {
+        FRASQLiteBackend backend = newBackend();
+        assertTrue(backend.commit(new FRAStorageBatch().setAccount(account("alice"))));
+        preferences.commit(new FRAStorageBatch().setAccount(account("bob")));
+
+        assertFalse(backend.migrateBack());
+        assertEquals(1, preferences.getAll(FRAStorageBackend.Table.ACCOUNT).size());
+        backend.close();
+    }
+
+    @Test
+    public void testMigrateBackRefusesWhenRowsCannotBeRead() {
+        FRASQLiteBackend backend = newBackend();
+        assertTrue(backend.commit(new FRAStorageBatch().setAccount(account("alice"))));
+
+        encryptor.fail = true;
+        assertFalse(backend.migrateBack());
+        assertTrue(preferences.isEmpty());
+        backend.close();
+    }
+
+    private FRASQLiteBackend newBackend() {
+        return new FRASQLiteBackend(context, DATABASE_NAME, encryptor, preferences);
+    }
+
+    private SharedPreferences getSharedPreferences(String name) {
+        SharedPreferences sharedPreferences =
+                context.getSharedPreferences("test.authenticator." + name, Context.MODE_PRIVATE);
+        sharedPreferences.edit().clear().commit();
+        return sharedPreferences;
+    }
+
+    private static Account account(String accountName) {
+        return Account.builder()
+                .setIssuer("ForgeRock")
+                .setAccountName(accountName)
+                .build();
+    }
+
+    /**
+     * Stores the rows in clear text, as the Android KeyStore is not available in unit tests.
+     */
+    private static class TestEncryptor extends FRADatabaseEncryptor {
+        volatile boolean fail;
+
+        TestEncryptor() {
+            super("test");
+        }
+
+        @Override
+        byte[] encrypt(String value) throws GeneralSecurityException {
+            if (fail) {
+                throw new GeneralSecurityException("Key unavailable");
+            }
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        String decrypt(byte[] value) throws GeneralSecurityException {
+            if (fail) {
+                throw new GeneralSecurityException("Key unavailable");
+            }
+            return new String(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class TestPreferencesBackend extends FRASharedPreferencesBackend {
+        volatile boolean failClear;
+
+        TestPreferencesBackend(SharedPreferences accountData, SharedPreferences mechanismData,
+                               SharedPreferences notificationData, SharedPreferences backupData) {
+            super(accountData, mechanismData, notificationData, backupData);
+        }
+
+        @Override
+        public boolean clear(Table... tables) {
+            return !failClear && super.clear(tables);
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.android.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class FRAStorageClientTest {
+
+    private static final long TIME = 1_600_000_000_000L;
+
+    private TestBackend backend;
+    private FRAStorageClient storageClient;
+
+    @Before
+    public void setUp() {
+        backend = new TestBackend(getSharedPreferences("account"), getSharedPreferences("mechanism"),
+                getSharedPreferences("notification"), getSharedPreferences("backup"));
+        storageClient = new FRAStorageClient(backend, FRAClientConfig.defaults());
+    }
+
+    @Test
+    public void testFailedCommitReloadsCachedData() {
+        Account alice = account("alice");
+        Account bob = account("bob");
+        Account carol = account("carol");
+        assertTrue(storageClient.setAccount(alice));
+        assertEquals(1, storageClient.getAllAccounts().size());
+
+        // Written behind the back of the caches, only visible once they are reloaded
+        assertTrue(backend.commit(new FRAStorageBatch().setAccount(carol)));
+
+        backend.failCommit = true;
+        assertFalse(storageClient.batch().setAccount(bob).commit());
+        backend.failCommit = false;
+
+        List<String> accountIds = new ArrayList<>();
+        for (Account account : storageClient.getAllAccounts()) {
+            accountIds.add(account.getId());
+        }
+        assertEquals(2, accountIds.size());
+        assertTrue(accountIds.contains(alice.getId()));
+        assertTrue(accountIds.contains(carol.getId()));
+        assertFalse(accountIds.contains(bob.getId()));
+    }
+
+    @Test
+    public void testPendingCountExcludesExpiredNotifications() {
+        long now = System.currentTimeMillis();
+        PushNotification pending = notification("mechanism", now, true, now + TimeUnit.HOURS.toMillis(1), null);
+        // Added already expired, before any count was taken
+        PushNotification expired = notification("mechanism", now - 2000, true, now - 1000, null);
+        PushNotification approved = notification("mechanism", now - 3000, false, now + TimeUnit.HOURS.toMillis(1), null);
+        assertTrue(storageClient.setNotification(pending));
+        assertTrue(storageClient.setNotification(expired));
+        assertTrue(storageClient.setNotification(approved));
+
+        assertEquals(1, storageClient.getPendingNotificationsCount());
+
+        assertTrue(storageClient.removeNotification(pending));
+        assertEquals(0, storageClient.getPendingNotificationsCount());
+    }
+
+    @Test
+    public void testNotificationsAreOrderedNewestFirstWithTiesById() {
+        addTimeline();
+
+        assertEquals(ids("m1-5", "m1-4", "a-3", "b-3", "m1-2", "m1-1"),
+                ids(storageClient.getNotifications(new FRANotificationQuery())));
+    }
+
+    @Test
+    public void testOlderThanStartsAfterTheCursor() {
+        List<PushNotification> timeline = addTimeline();
+
+        // Cursor on the first of the tied notifications
+        FRANotificationQuery query = new FRANotificationQuery()
+                .setOlderThan(FRANotificationCursor.of(timeline.get(2)))
+                .setLimit(2);
+        assertEquals(ids("b-3", "m1-2"), ids(storageClient.getNotifications(query)));
+    }
+
+    @Test
+    public void testNewerThanReturnsThePageRightAfterTheCursor() {
+        List<PushNotification> timeline = addTimeline();
+
+        FRANotificationQuery query = new FRANotificationQuery()
+                .setNewerThan(FRANotificationCursor.of(timeline.get(5)))
+                .setLimit(2);
+        // The two oldest notifications newer than the cursor, still ordered newest first
+        assertEquals(ids("b-3", "m1-2"), ids(storageClient.getNotifications(query)));
+    }
+
+    @Test
+    public void testOlderThanAndNewerThanBoundTheRange() {
+        List<PushNotification> timeline = addTimeline();
+
+        FRANotificationQuery query = new FRANotificationQuery()
+                .setOlderThan(FRANotificationCursor.of(timeline.get(1)))
+                .setNewerThan(FRANotificationCursor.of(timeline.get(4)));
+        assertEquals(ids("a-3", "b-3"), ids(storageClient.getNotifications(query)));
+
+        FRANotificationQuery emptyRange = new FRANotificationQuery()
+                .setOlderThan(FRANotificationCursor.of(timeline.get(4)))
+                .setNewerThan(FRANotificationCursor.of(timeline.get(1)));
+        assertTrue(storageClient.getNotifications(emptyRange).isEmpty());
+    }
+
+    @Test
+    public void testZeroLimitReturnsAllNotifications() {
+        addTimeline();
+
+        FRANotificationQuery query = new FRANotificationQuery().setLimit(0);
+        assertEquals(6, storageClient.getNotifications(query).size());
+    }
+
+    @Test
+    public void testPendingOnlyAndPushTypeFilters() {
+        addTimeline();
+
+        FRANotificationQuery pendingOnly = new FRANotificationQuery().setPendingOnly(true);
+        assertEquals(ids("m1-5", "a-3", "m1-1"), ids(storageClient.getNotifications(pendingOnly)));
+
+        FRANotificationQuery challenge = new FRANotificationQuery().setPushType("CHALLENGE");
+        assertEquals(ids("m1-4", "a-3"), ids(storageClient.getNotifications(challenge)));
+
+        // The filters are applied before the limit
+        FRANotificationQuery both = new FRANotificationQuery()
+                .setPendingOnly(true)
+                .setPushType("challenge")
+                .setLimit(1);
+        assertEquals(ids("a-3"), ids(storageClient.getNotifications(both)));
+    }
+
+    /**
+     * Store six notifications, two of them added at the same time, and return them newest first.
+     */
+    private List<PushNotification> addTimeline() {
+        long expiry = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        List<PushNotification> timeline = new ArrayList<>();
+        timeline.add(notification("m1", TIME + 5, true, expiry, null));
+        timeline.add(notification("m1", TIME + 4, false, expiry, "challenge"));
+        timeline.add(notification("a", TIME + 3, true, expiry, "challenge"));
+        timeline.add(notification("b", TIME + 3, false, expiry, null));
+        timeline.add(notification("m1", TIME + 2, false, expiry, null));
+        timeline.add(notification("m1", TIME + 1, true, expiry, null));
+        for (PushNotification pushNotification : timeline) {
+            assertTrue(storageClient.setNotification(pushNotification));
+        }
+        return timeline;
+    }
+
+    /**
+     * Get the mechanism UID and time added offset of the notifications.
+     */
+    private static List<String> ids(List<PushNotification> notifications) {
+        List<String> ids = new ArrayList<>();
+        for (PushNotification pushNotification : notifications) {
+            ids.add(pushNotification.getMechanismUID() + "-"
+                    + (pushNotification.getTimeAdded().getTimeInMillis() - TIME));
+        }
+        return ids;
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> list = new ArrayList<>();
+        for (String id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static PushNotification notification(String mechanismUID, long timeAdded,
+                                                 boolean pending, long timeExpired, String pushType) {
+        Calendar added = Calendar.getInstance();
+        added.setTimeInMillis(timeAdded);
+        Calendar expired = Calendar.getInstance();
+        expired.setTimeInMillis(timeExpired);
+        PushNotification.PushNotificationBuilder builder = PushNotification.builder()
+                .setMechanismUID(mechanismUID)
+                .setMessageId("message-" + mechanismUID + "-" + timeAdded)
+                .setChallenge("challenge")
+                .setAmlbCookie("cookie")
+                .setTimeAdded(added)
+                .setTimeExpired(expired)
+                .setTtl(3600)
+                .setPending(pending)
+                .setApproved(!pending);
+        if (pushType != null) {
+            builder.setPushType(pushType);
+        }
+        return builder.build();
+    }
+
+    private static Account account(String accountName) {
+        return Account.builder()
+                .setIssuer("ForgeRock")
+                .setAccountName(accountName)
+                .build();
+    }
+
+    private static SharedPreferences getSharedPreferences(String name) {
+        Context context = ApplicationProvider.getApplicationContext();
+        SharedPreferences sharedPreferences =
+                context.getSharedPreferences("test.storage." + name, Context.MODE_PRIVATE);
+        sharedPreferences.edit().clear().commit();
+        return sharedPreferences;
+    }
+
+    private static class TestBackend extends FRASharedPreferencesBackend {
+        volatile boolean failCommit;
+
+        TestBackend(SharedPreferences accountData, SharedPreferences mechanismData,
+                    SharedPreferences notificationData, SharedPreferences backupData) {
+            super(accountData, mechanismData, notificationData, backupData);
+        }
+
+        @Override
+        public boolean commit(FRAStorageBatch batch) {
+            return !failCommit && super.commit(batch);
+        }
+    }
+
+}
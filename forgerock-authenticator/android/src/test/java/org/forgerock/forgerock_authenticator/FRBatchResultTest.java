@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+package org.forgerock.forgerock_authenticator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+public class FRBatchResultTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOperationsOnDifferentResourcesRunInOrder() throws Exception {
+        // The first operations are the slowest, they would complete last if run in parallel
+        final List<MethodCall> operations = new ArrayList<>();
+        operations.add(call("setStoredNotification", "notifications", 200));
+        operations.add(call("getOathTokenCode", "oath:1", 100));
+        operations.add(call("removeMechanism", "storage", 50));
+        operations.add(call("getAllNotifications", "notifications", 0));
+
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        TestResult batchReply = new TestResult();
+
+        new FRBatchResult(operations.size(), batchReply).run(operations, new FRBatchResult.Dispatcher() {
+            @Override
+            public void dispatch(@NonNull final MethodCall operation, @NonNull final Result result) {
+                started.add(operation.method);
+                // Each resource has its own thread, as with the worker queues
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sleep((Integer) operation.argument("delay"));
+                        completed.add(operation.method);
+                        result.success(operation.method);
+                    }
+                });
+            }
+        });
+
+        List<?> reply = batchReply.await();
+        List<String> expected = new ArrayList<>();
+        for (MethodCall operation : operations) {
+            expected.add(operation.method);
+        }
+        assertEquals(expected, started);
+        assertEquals(expected, completed);
+        assertEquals(operations.size(), reply.size());
+        for (int i = 0; i < reply.size(); i++) {
+            Map<?, ?> operationResult = (Map<?, ?>) reply.get(i);
+            assertEquals(true, operationResult.get("success"));
+            assertEquals(expected.get(i), operationResult.get("result"));
+        }
+    }
+
+    @Test
+    public void testFailedOperationDoesNotStopTheFollowingOnes() throws Exception {
+        List<MethodCall> operations = new ArrayList<>();
+        operations.add(call("removeAccount", "storage", 0));
+        operations.add(call("getAllAccounts", "storage", 0));
+        TestResult batchReply = new TestResult();
+
+        new FRBatchResult(operations.size(), batchReply).run(operations, new FRBatchResult.Dispatcher() {
+            @Override
+            public void dispatch(@NonNull MethodCall operation, @NonNull Result result) {
+                if ("removeAccount".equals(operation.method)) {
+                    result.error("ACCOUNT_EXCEPTION", "Account not found.", null);
+                    // Only the first reply is kept
+                    result.success(true);
+                } else {
+                    result.success(true);
+                }
+            }
+        });
+
+        List<?> reply = batchReply.await();
+        Map<?, ?> failed = (Map<?, ?>) reply.get(0);
+        assertFalse((Boolean) failed.get("success"));
+        assertEquals("ACCOUNT_EXCEPTION", failed.get("code"));
+        Map<?, ?> succeeded = (Map<?, ?>) reply.get(1);
+        assertTrue((Boolean) succeeded.get("success"));
+    }
+
+    @Test
+    public void testEmptyBatchRepliesImmediately() throws Exception {
+        TestResult batchReply = new TestResult();
+        new FRBatchResult(0, batchReply).run(new ArrayList<MethodCall>(), null);
+        assertTrue(batchReply.await().isEmpty());
+    }
+
+    private static MethodCall call(String method, String resource, int delay) {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("resource", resource);
+        arguments.put("delay", delay);
+        return new MethodCall(method, arguments);
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class TestResult implements Result {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicReference<List<?>> reply = new AtomicReference<>();
+
+        @Override
+        public void success(@Nullable Object result) {
+            reply.set((List<?>) result);
+            latch.countDown();
+        }
+
+        @Override
+        public void error(@NonNull String errorCode, @Nullable String errorMessage,
+                          @Nullable Object errorDetails) {
+            latch.countDown();
+        }
+
+        @Override
+        public void notImplemented() {
+            latch.countDown();
+        }
+
+        List<?> await() throws InterruptedException {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            return reply.get();
+        }
+    }
+
+}
@@ -7,14 +7,24 @@
 
 import 'dart:async';
 import 'dart:convert';
+import 'dart:ui' show CallbackHandle, PluginUtilities;
 
 import 'package:flutter/services.dart';
+import 'package:flutter/widgets.dart' show WidgetsFlutterBinding;
 
 import 'models/account.dart';
+import 'models/batch_operation.dart';
 import 'models/mechanism.dart';
 import 'models/oath_token_code.dart';
 import 'models/push_mechanism.dart';
 import 'models/push_notification.dart';
+import 'models/push_type.dart';
+import 'models/storage_change.dart';
+
+/// Handler of the push notifications received when the app is not running,
+/// see [ForgerockAuthenticator.registerBackgroundMessageHandler].
+typedef BackgroundMessageHandler = Future<void> Function(
+    PushNotification notification);
 
 /// The [ForgerockAuthenticator] entry point. Represents the Authenticator module of the ForgeRock
 /// Mobile SDK. It is the front facing class where the methods available in the SDK can be
@@ -24,6 +34,10 @@ class ForgerockAuthenticator {
       MethodChannel('forgerock_authenticator');
   static const EventChannel _eventChannel =
       EventChannel('forgerock_authenticator/events');
+  static const EventChannel _changesChannel =
+      EventChannel('forgerock_authenticator/changes');
+  static const EventChannel _metricsChannel =
+      EventChannel('forgerock_authenticator/metrics');
 
   static const AccountLockException = 'ACCOUNT_LOCK_EXCEPTION';
   static const AccountParsingException = 'ACCOUNT_PARSING_EXCEPTION';
@@ -37,6 +51,7 @@ class ForgerockAuthenticator {
   static const PlatformArgumentException = 'PLATFORM_ARGUMENT_EXCEPTION';
   static const PushRegistrationException = 'PUSH_REGISTRATION_EXCEPTION';
   static const PolicyViolationException = 'POLICY_VIOLATION_EXCEPTION';
+  static const PushResponseQueued = 'PUSH_RESPONSE_QUEUED';
 
   static const PUSH_URI = 'pushauth';
   static const OATH_URI = 'otpauth';
@@ -178,6 +193,10 @@ class ForgerockAuthenticator {
   }
 
   /// Respond a [PushType.DEFAULT] authentication request from a given [PushNotification] received from OpenAM.
+  ///
+  /// On Android, if the response cannot reach the server because of the network, it fails with
+  /// the [PushResponseQueued] error code and is sent again later, the notification stays pending
+  /// until then.
   static Future<bool?> performPushAuthentication(
       PushNotification pushNotification, bool accept) async {
     String notificationId = pushNotification.id;
@@ -191,6 +210,9 @@ class ForgerockAuthenticator {
   /// Respond a [PushType.CHALLENGE] authentication request from a given [PushNotification] received from OpenAM.
   ///
   /// Note: This API is available with OpenAM 7.2 and beyond
+  ///
+  /// On Android, the response may fail with the [PushResponseQueued] error code, see
+  /// [performPushAuthentication].
   static Future<bool?> performPushAuthenticationWithChallenge(
       PushNotification pushNotification,
       String challengeResponse,
@@ -248,6 +270,65 @@ class ForgerockAuthenticator {
     }
   }
 
+  /// Get a page of notifications across all mechanisms, ordered by time added, newest first.
+  ///
+  /// Pass the last notification of the previous page as [olderThan] to page through the
+  /// history, or the newest notification already known as [newerThan] to fetch only the new
+  /// ones. At most [limit] notifications are returned, `0` means no limit. The results can be
+  /// filtered by [mechanismUID], by [pushType], or to the ones still pending with [pendingOnly].
+  /// Only available on Android devices.
+  static Future<List<PushNotification>> getNotificationsPage(
+      {PushNotification? olderThan,
+      PushNotification? newerThan,
+      int limit = 20,
+      String? mechanismUID,
+      bool pendingOnly = false,
+      PushType? pushType}) async {
+    var params = <String, dynamic>{
+      'olderThan': _getNotificationCursor(olderThan),
+      'newerThan': _getNotificationCursor(newerThan),
+      'limit': limit,
+      'mechanismUID': mechanismUID,
+      'pendingOnly': pendingOnly,
+      'pushType': pushType?.value,
+    };
+    try {
+      List? list = await _channel.invokeMethod('getNotificationsPage', params);
+      if (list != null && list.isNotEmpty) {
+        var mechanismMap =
+            await _channel.invokeMethod('getAllMechanismsGroupByUID');
+        List<PushNotification> notifications = [];
+        for (final element in list) {
+          PushNotification pushNotification =
+              PushNotification.fromJson(_getPlatformData(element));
+          final mechanismJson = mechanismMap?[pushNotification.mechanismUID];
+          if (mechanismJson != null) {
+            final pushMechanism =
+                Mechanism.fromJson(_getPlatformData(mechanismJson));
+            pushNotification.setMechanism(pushMechanism as PushMechanism?);
+          }
+          notifications.add(pushNotification);
+        }
+        return notifications;
+      } else {
+        return List.empty();
+      }
+    } on PlatformException catch (ex) {
+      throw ex;
+    }
+  }
+
+  static Map<String, dynamic>? _getNotificationCursor(
+      PushNotification? notification) {
+    if (notification == null) {
+      return null;
+    }
+    return <String, dynamic>{
+      'id': notification.id,
+      'timeAdded': notification.timeAdded,
+    };
+  }
+
   /// Get the number of non-expired notifications across all mechanisms.
   static Future<int> getPendingNotificationsCount() async {
     final int count =
@@ -286,6 +367,92 @@ class ForgerockAuthenticator {
     }
   }
 
+  /// Run several methods with a single platform call. The operations run one
+  /// after another, each one starting once the previous one completed, and the
+  /// results are returned in the same order once all of them completed. An operation failing does not stop the following ones,
+  /// its error is reported in its [BatchResult].
+  /// Currently only supported on Android.
+  static Future<List<BatchResult>> batch(List<BatchOperation> operations) async {
+    final params = <String, dynamic>{
+      'operations': operations.map((operation) => operation.toJson()).toList(),
+    };
+    List? list = await _channel.invokeMethod('batch', params);
+    if (list != null && list.isNotEmpty) {
+      return list
+          .map((element) =>
+              BatchResult.fromJson(Map<String, dynamic>.from(element)))
+          .toList();
+    } else {
+      return List.empty();
+    }
+  }
+
+  /// Stream of the changes applied to the stored accounts, mechanisms and
+  /// notifications, to keep a local copy of them without loading them all again.
+  /// The first [StorageChange] of a subscription is a [StorageChangeType.RESET].
+  /// Currently only supported on Android.
+  static late final Stream<StorageChange> changeStream = _changesChannel
+      .receiveBroadcastStream()
+      .map<StorageChange>((dynamic event) =>
+          StorageChange.fromJson(Map<String, dynamic>.from(event)));
+
+  /// Get the latency and error metrics of the platform methods. For each
+  /// method name, returns the number of `calls` and `errors`, and the `count`,
+  /// `mean`, `p50`, `p99` and `max` latency in milliseconds of each of its
+  /// `phases`: `total`, `queue`, `storage`, `crypto`, `network` and
+  /// `serialization`. Set [reset] to start counting again from zero.
+  /// Metrics are only recorded when enabled with the
+  /// `org.forgerock.authenticator.METRICS` manifest entry, otherwise no method
+  /// is reported. Currently only supported on Android.
+  static Future<Map<String, dynamic>> getMetrics({bool reset = false}) async {
+    final params = <String, dynamic>{
+      'reset': reset,
+    };
+    var metrics = await _channel.invokeMethod('getMetrics', params);
+    return metrics != null
+        ? Map<String, dynamic>.from(metrics)
+        : <String, dynamic>{};
+  }
+
+  /// Stream of the metrics returned by [getMetrics], sent every
+  /// [intervalSeconds]. Each event only covers the period since the previous
+  /// one. Currently only supported on Android.
+  static Stream<Map<String, dynamic>> metricsStream({int intervalSeconds = 60}) {
+    return _metricsChannel
+        .receiveBroadcastStream(intervalSeconds)
+        .map<Map<String, dynamic>>(
+            (dynamic event) => Map<String, dynamic>.from(event));
+  }
+
+  /// Register the handler of the push notifications received when no app
+  /// engine is running, for example when the app was killed. The handler runs
+  /// in a background isolate, on a headless engine which is started on the
+  /// first notification and reused for the following ones. The [handler] must
+  /// be a top-level or static function.
+  ///
+  /// The handler can call the [ForgerockAuthenticator] methods, for example to
+  /// read or respond to the notification. The event streams, [changeStream],
+  /// [metricsStream] and [linkStream], are only served to the app engine and
+  /// emit nothing in the background isolate. Notifications
+  /// received while the engine starts are queued, up to 20; if the handler is
+  /// not ready within 30 seconds, they are not delivered to it, and are still
+  /// stored as usual. Currently only supported on Android.
+  static Future<void> registerBackgroundMessageHandler(
+      BackgroundMessageHandler handler) async {
+    final dispatcher =
+        PluginUtilities.getCallbackHandle(_backgroundMessageDispatcher);
+    final callback = PluginUtilities.getCallbackHandle(handler);
+    if (dispatcher == null || callback == null) {
+      throw ArgumentError(
+          'The background message handler must be a top-level or static function.');
+    }
+    final params = <String, dynamic>{
+      'dispatcherHandle': dispatcher.toRawHandle(),
+      'handlerHandle': callback.toRawHandle(),
+    };
+    await _channel.invokeMethod('registerBackgroundMessageHandler', params);
+  }
+
   //
   // App helper methods
   //
@@ -356,3 +523,27 @@ class ForgerockAuthenticator {
     ),
   );
 }
+
+/// Entrypoint of the background isolate delivering the push notifications to
+/// the handler registered with
+/// [ForgerockAuthenticator.registerBackgroundMessageHandler].
+@pragma('vm:entry-point')
+void _backgroundMessageDispatcher() {
+  WidgetsFlutterBinding.ensureInitialized();
+
+  const MethodChannel backgroundChannel =
+      MethodChannel('forgerock_authenticator/background');
+  backgroundChannel.setMethodCallHandler((MethodCall call) async {
+    if (call.method == 'onBackgroundMessage') {
+      final arguments = Map<String, dynamic>.from(call.arguments);
+      final handler = PluginUtilities.getCallbackFromHandle(
+              CallbackHandle.fromRawHandle(arguments['handle']))
+          as BackgroundMessageHandler?;
+      if (handler != null) {
+        await handler(PushNotification.fromJson(
+            Map<String, dynamic>.from(arguments['notification'])));
+      }
+    }
+  });
+  backgroundChannel.invokeMethod('initialized');
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+/// Represents a platform method call run as part of a batch.
+class BatchOperation {
+  String method;
+  Map<String, dynamic>? arguments;
+
+  /// Creates [BatchOperation] object for the given method name and arguments.
+  BatchOperation(this.method, [this.arguments]);
+
+  /// Creates a JSON representation of [BatchOperation] object.
+  Map<String, dynamic> toJson() => {
+        'method': method,
+        'arguments': arguments,
+      };
+}
+
+/// Represents the result of a [BatchOperation].
+///
+/// The [result] is the raw platform data returned by the method, which can be
+/// deserialized with the `fromJson` factory of the matching model.
+class BatchResult {
+  bool success;
+  dynamic result;
+  String? code;
+  String? message;
+  dynamic details;
+
+  /// Creates [BatchResult] object with given information.
+  BatchResult(this.success, this.result, this.code, this.message, this.details);
+
+  /// Deserializes the specified JSON into a [BatchResult] object.
+  factory BatchResult.fromJson(Map<String, dynamic> json) {
+    return BatchResult(json['success'] == true, json['result'], json['code'],
+        json['message'], json['details']);
+  }
+}
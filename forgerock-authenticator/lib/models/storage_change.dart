@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+import 'account.dart';
+import 'mechanism.dart';
+import 'push_notification.dart';
+
+/// The stored entity types reported by a [StorageChange].
+enum StorageEntity { ACCOUNT, MECHANISM, NOTIFICATION }
+
+/// The kinds of changes reported by a [StorageChange].
+enum StorageChangeType { ADDED, UPDATED, REMOVED, RESET }
+
+/// Represents a change applied to the stored accounts, mechanisms or notifications.
+///
+/// Changes have a [sequence] number which increases monotonically. A [StorageChangeType.RESET]
+/// means that the entities of the given [entity] type, or all of them if [entity] is `null`,
+/// must be loaded again.
+class StorageChange {
+  int sequence;
+  StorageEntity? entity;
+  StorageChangeType type;
+  String? id;
+  Map<String, dynamic>? data;
+
+  /// Creates [StorageChange] object with given information.
+  StorageChange(this.sequence, this.entity, this.type, this.id, this.data);
+
+  /// Deserializes the specified JSON into a [StorageChange] object.
+  factory StorageChange.fromJson(Map<String, dynamic> json) {
+    String? entity = json['entity'];
+    String type = json['change'];
+    return StorageChange(
+        json['sequence'],
+        entity == null
+            ? null
+            : StorageEntity.values.firstWhere((value) =>
+                value.toString() == 'StorageEntity.${entity.toUpperCase()}'),
+        StorageChangeType.values.firstWhere((value) =>
+            value.toString() == 'StorageChangeType.${type.toUpperCase()}'),
+        json['id'],
+        json['data'] == null ? null : Map<String, dynamic>.from(json['data']));
+  }
+
+  /// The changed [Account], without its mechanisms, or `null` if removed or not an account.
+  Account? get account => entity == StorageEntity.ACCOUNT && data != null
+      ? Account.fromJson(data!)
+      : null;
+
+  /// The changed [Mechanism], or `null` if removed or not a mechanism.
+  Mechanism? get mechanism => entity == StorageEntity.MECHANISM && data != null
+      ? Mechanism.fromJson(data!)
+      : null;
+
+  /// The changed [PushNotification], or `null` if removed or not a notification.
+  PushNotification? get notification =>
+      entity == StorageEntity.NOTIFICATION && data != null
+          ? PushNotification.fromJson(data)
+          : null;
+}
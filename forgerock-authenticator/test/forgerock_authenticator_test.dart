@@ -10,9 +10,11 @@ import 'dart:convert';
 import 'package:flutter/services.dart';
 import 'package:flutter_test/flutter_test.dart';
 import 'package:forgerock_authenticator/forgerock_authenticator.dart';
+import 'package:forgerock_authenticator/models/batch_operation.dart';
 import 'package:forgerock_authenticator/models/oath_mechanism.dart';
 import 'package:forgerock_authenticator/models/oath_token_code.dart';
 import 'package:forgerock_authenticator/models/push_notification.dart';
+import 'package:forgerock_authenticator/models/push_type.dart';
 
 import 'constants.dart';
 
@@ -232,6 +234,27 @@ void main() {
     ]);
   });
 
+  test('getNotificationsPage', () async {
+    final PushNotification notification = PushNotification.fromJson(jsonDecode(pushNotificationJson));
+    expect(await ForgerockAuthenticator.getNotificationsPage(olderThan: notification, limit: 10,
+        pendingOnly: true, pushType: PushType.CHALLENGE), List.empty());
+    expect(methodCallLog, hasLength(1));
+    expect(methodCallLog, <Matcher>[
+      isMethodCall('getNotificationsPage',
+        arguments: <String, dynamic>{
+          "olderThan": <String, dynamic>{
+            "id": notification.id,
+            "timeAdded": notification.timeAdded
+          },
+          "newerThan": null,
+          "limit": 10,
+          "mechanismUID": null,
+          "pendingOnly": true,
+          "pushType": "challenge"
+        },),
+    ]);
+  });
+
   test('getPendingNotificationsCount', () async {
     expect(await ForgerockAuthenticator.getPendingNotificationsCount(), isA<int>());
     expect(methodCallLog, hasLength(1));
@@ -256,6 +279,43 @@ void main() {
     ]);
   });
 
+  test('batch', () async {
+    List<BatchResult> results = await ForgerockAuthenticator.batch([
+      BatchOperation('getAllMechanismsGroupByUID'),
+      BatchOperation('getOathTokenCode', {'mechanismId': 'mechanismId'}),
+    ]);
+    expect(results, hasLength(2));
+    expect(results[0].success, isTrue);
+    expect(results[1].success, isFalse);
+    expect(results[1].code, 'OATH_MECHANISM_EXCEPTION');
+    expect(methodCallLog, hasLength(1));
+    expect(methodCallLog, <Matcher>[
+      isMethodCall(
+        'batch',
+        arguments: <String, dynamic>{
+          'operations': [
+            {'method': 'getAllMechanismsGroupByUID', 'arguments': null},
+            {'method': 'getOathTokenCode', 'arguments': {'mechanismId': 'mechanismId'}},
+          ]
+        },
+      ),
+    ]);
+  });
+
+  test('getMetrics', () async {
+    Map<String, dynamic> metrics = await ForgerockAuthenticator.getMetrics(reset: true);
+    expect(metrics['methods'], isNotEmpty);
+    expect(methodCallLog, hasLength(1));
+    expect(methodCallLog, <Matcher>[
+      isMethodCall(
+        'getMetrics',
+        arguments: <String, dynamic>{
+          'reset': true
+        },
+      ),
+    ]);
+  });
+
   test('enableScreenshot', () async {
     expect(await ForgerockAuthenticator.enableScreenshot(), isTrue);
     expect(methodCallLog, hasLength(1));
@@ -303,9 +363,27 @@ void setupForgerockAuthenticatorMocks() {
       case 'getAllAccounts':
       case 'getAllNotifications':
       case 'getAllNotificationsByAccountId':
+      case 'getNotificationsPage':
         return List.empty();
       case 'getPendingNotificationsCount':
         return 0;
+      case 'getMetrics':
+        return {
+          'timestamp': 100000,
+          'methods': {
+            'getAllAccounts': {'calls': 1, 'errors': 0, 'phases': {}}
+          }
+        };
+      case 'batch':
+        return [
+          {'success': true, 'result': {}},
+          {
+            'success': false,
+            'code': 'OATH_MECHANISM_EXCEPTION',
+            'message': 'Mechanism not found.',
+            'details': null
+          },
+        ];
       case 'getInitialLink':
         return totpURI;
       case 'updateAccount':
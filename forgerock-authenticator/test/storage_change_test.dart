@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2023 ForgeRock. All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of the MIT license. See the LICENSE file for details.
+ */
+
+import 'dart:convert';
+
+import 'package:flutter_test/flutter_test.dart';
+import 'package:forgerock_authenticator/models/storage_change.dart';
+
+import 'constants.dart';
+
+void main() {
+
+  group('StorageChange tests', () {
+    test('returns a StorageChange with a notification if parse completes successfully', () async {
+      StorageChange change = StorageChange.fromJson(<String, dynamic>{
+        'sequence': 2,
+        'entity': 'notification',
+        'change': 'added',
+        'id': '0585ace6-6e91-42bb-9a65-2f48f5212a20-100000',
+        'data': jsonDecode(pushNotificationJson),
+      });
+      expect(change.sequence, 2);
+      expect(change.entity, StorageEntity.NOTIFICATION);
+      expect(change.type, StorageChangeType.ADDED);
+      expect(change.notification?.id, '0585ace6-6e91-42bb-9a65-2f48f5212a20-100000');
+      expect(change.account, isNull);
+      expect(change.mechanism, isNull);
+    });
+
+    test('returns a StorageChange without data for a removed entity', () async {
+      StorageChange change = StorageChange.fromJson(<String, dynamic>{
+        'sequence': 3,
+        'entity': 'mechanism',
+        'change': 'removed',
+        'id': 'issuer1-user1-pushauth',
+        'data': null,
+      });
+      expect(change.entity, StorageEntity.MECHANISM);
+      expect(change.type, StorageChangeType.REMOVED);
+      expect(change.id, 'issuer1-user1-pushauth');
+      expect(change.mechanism, isNull);
+    });
+
+    test('returns a reset of all the entities', () async {
+      StorageChange change = StorageChange.fromJson(<String, dynamic>{
+        'sequence': 1,
+        'entity': null,
+        'change': 'reset',
+        'id': null,
+        'data': null,
+      });
+      expect(change.entity, isNull);
+      expect(change.type, StorageChangeType.RESET);
+    });
+  });
+
+}